@@ -0,0 +1,302 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Whitespace tokenizer for the PSiNS text formats which works directly on
+ * the bytes of a memory mapped file. The tokenizer keeps a current line and
+ * a current token; numbers are parsed from the bytes of the current token
+ * without creating String objects.
+ */
+public class ByteTokenizer {
+
+    static final double[] POWERS_OF_10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    ByteBuffer buffer;
+    int limit;
+    int lineStart = 0;
+    int lineEnd = 0;
+    int lineNumber = 0;
+    int tokenStart = 0;
+    int tokenEnd = 0;
+
+    /**
+     * Map a file into memory and create a tokenizer for it
+     * @param file Path to the file
+     * @return ByteTokenizer Tokenizer positioned before the first line
+     */
+    public static ByteTokenizer map(String file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return new ByteTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Constructor
+     * @param buffer Bytes to tokenize, from position 0 to the limit
+     */
+    public ByteTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        limit = buffer.limit();
+        lineEnd = -1;
+    }
+
+    /**
+     * Advance to the next line
+     * @return boolean False if there are no more lines
+     */
+    public boolean nextLine() {
+        int start = lineEnd + 1;
+        if (start >= limit) {
+            return false;
+        }
+        int end = start;
+        while (end < limit && buffer.get(end) != '\n') {
+            ++end;
+        }
+        lineStart = start;
+        lineEnd = end;
+        tokenStart = start;
+        tokenEnd = start;
+        ++lineNumber;
+        return true;
+    }
+
+    /**
+     * Advance to a line
+     * @param line Line number, starting at 1 as with LineNumberReader
+     * @return boolean False if the file has fewer lines
+     */
+    public boolean seekLine(int line) {
+        while (lineNumber < line) {
+            if (!nextLine()) {
+                return false;
+            }
+        }
+        return lineNumber == line;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Select the next token on the current line
+     * @return boolean False if there are no more tokens on the line
+     */
+    public boolean nextToken() {
+        int start = tokenEnd;
+        while (start < lineEnd && isSpace(buffer.get(start))) {
+            ++start;
+        }
+        if (start >= lineEnd) {
+            tokenStart = tokenEnd = lineEnd;
+            return false;
+        }
+        int end = start;
+        while (end < lineEnd && !isSpace(buffer.get(end))) {
+            ++end;
+        }
+        tokenStart = start;
+        tokenEnd = end;
+        return true;
+    }
+
+    /**
+     * Select a token on the current line
+     * @param column Index of the token, starting at 0
+     * @return boolean False if the line has fewer tokens
+     */
+    public boolean token(int column) {
+        tokenEnd = lineStart;
+        for (int i = 0; i <= column; ++i) {
+            if (!nextToken()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Select the last token on the current line
+     * @return boolean False if the line has no tokens
+     */
+    public boolean lastToken() {
+        int end = lineEnd;
+        while (end > lineStart && isSpace(buffer.get(end - 1))) {
+            --end;
+        }
+        if (end == lineStart) {
+            tokenStart = tokenEnd = lineEnd;
+            return false;
+        }
+        int start = end;
+        while (start > lineStart && !isSpace(buffer.get(start - 1))) {
+            --start;
+        }
+        tokenStart = start;
+        tokenEnd = end;
+        return true;
+    }
+
+    public int tokenLength() {
+        return tokenEnd - tokenStart;
+    }
+
+    public boolean tokenStartsWithDigit() {
+        return tokenEnd > tokenStart && isDigit(buffer.get(tokenStart));
+    }
+
+    /**
+     * Compare the current token to an ASCII string
+     * @param ascii Bytes of the string
+     * @return boolean True if the token has the same bytes
+     */
+    public boolean tokenEquals(byte[] ascii) {
+        if (ascii.length != tokenEnd - tokenStart) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; ++i) {
+            if (buffer.get(tokenStart + i) != ascii[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String tokenString() throws UnsupportedEncodingException {
+        byte[] bytes = new byte[tokenEnd - tokenStart];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(tokenStart + i);
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    public int parseInt() {
+        long value = parseLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of range for int");
+        }
+        return (int) value;
+    }
+
+    public long parseLong() {
+        int i = tokenStart;
+        boolean negative = false;
+        if (i < tokenEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+        if (i == tokenEnd) {
+            throw new NumberFormatException("Token is not an integer");
+        }
+        long value = 0;
+        for (; i < tokenEnd; ++i) {
+            byte b = buffer.get(i);
+            if (!isDigit(b) || value > (Long.MAX_VALUE - 9) / 10) {
+                throw new NumberFormatException("Token is not an integer");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the current token as a double. Tokens whose digits fit in the
+     * 53 bit mantissa of a double and which have a small exponent are
+     * converted exactly from the bytes; any other token is handed to
+     * Double.parseDouble.
+     * @return double Value of the token
+     */
+    public double parseDouble() throws UnsupportedEncodingException {
+        int i = tokenStart;
+        boolean negative = false;
+        if (i < tokenEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < tokenEnd; ++i) {
+            byte b = buffer.get(i);
+            if (isDigit(b)) {
+                seenDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    ++digits;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenPoint) {
+                    --scale;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i < tokenEnd && (buffer.get(i) == 'e' || buffer.get(i) == 'E') && seenDigit) {
+            ++i;
+            boolean negativeExp = false;
+            if (i < tokenEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExp = buffer.get(i) == '-';
+                ++i;
+            }
+            int exponent = 0;
+            int start = i;
+            for (; i < tokenEnd && isDigit(buffer.get(i)) && exponent < 10000; ++i) {
+                exponent = exponent * 10 + (buffer.get(i) - '0');
+            }
+            if (i == start) {
+                seenDigit = false;
+            }
+            scale += negativeExp ? -exponent : exponent;
+        }
+        if (!seenDigit || i != tokenEnd || digits > 18 || mantissa > (1L << 53) || scale < -22 || scale > 22) {
+            return Double.parseDouble(tokenString());
+        }
+        double value = scale < 0 ? mantissa / POWERS_OF_10[-scale] : mantissa * POWERS_OF_10[scale];
+        return negative ? -value : value;
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
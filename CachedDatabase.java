@@ -0,0 +1,244 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+import PSaPP.dbase.*;
+
+import java.util.*;
+
+/**
+ * Memoizing front end for the Database lookups made while reporting. Values
+ * are kept in a bounded LRU map and optionally expire after a time to live.
+ * A failed lookup, i.e. null or a negative id, is kept only for MISS_TTL so
+ * that a profile added to the database is found by long running reporters.
+ * All lookups are serialized so the underlying Database is never used by
+ * two threads at once.
+ */
+public class CachedDatabase {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final long MISS_TTL = 60000;
+    static final String BASE_RESOURCE_NAME = "baseResourceName";
+    static final String CACHE_SYSID = "cacheSysId";
+    static final String BASE_RESOURCE = "baseResource";
+    static final String MEMORY_PIDX = "memoryPIdx";
+    static final String MACHINE_LABEL = "machineLabel";
+    static final String TEST_CASE_USERS = "testCaseUsers";
+    Database database;
+    long ttl;
+    long missTtl = MISS_TTL;
+    LinkedHashMap entries;
+    int hits = 0;
+    int misses = 0;
+    Metrics metrics = null;
+
+    static class Entry {
+
+        Object value;
+        long expires;                                                                              //0 never expires
+    }
+
+    /**
+     * Constructor
+     * @param db Database to which lookups are delegated; may be null if all values are primed
+     */
+    public CachedDatabase(Database db) {
+        this(db, DEFAULT_CAPACITY, 0);
+    }
+
+    /**
+     * Constructor
+     * @param db Database to which lookups are delegated; may be null if all values are primed
+     * @param capacity Maximum number of cached values
+     * @param ttlMillis Time in milliseconds after which a value is looked up again; 0 never expires.
+     * Failed lookups expire after MISS_TTL regardless.
+     */
+    public CachedDatabase(Database db, final int capacity, long ttlMillis) {
+        database = db;
+        ttl = ttlMillis;
+        entries = new LinkedHashMap(16, 0.75f, true) {
+
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Set the metrics to which the time of each database call is added
+     * @param metrics The metrics or null
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public String getBaseResourceName(int profile) {
+        return (String) get(BASE_RESOURCE_NAME, profile);
+    }
+
+    public int getCacheSysId(int profile) {
+        return intValue(get(CACHE_SYSID, profile));
+    }
+
+    public int getBaseResource(int profile) {
+        return intValue(get(BASE_RESOURCE, profile));
+    }
+
+    public int getMemoryPIdx(int profile) {
+        return intValue(get(MEMORY_PIDX, profile));
+    }
+
+    public String getMachineLabel(int profile) {
+        return (String) get(MACHINE_LABEL, profile);
+    }
+
+    public synchronized TreeMap getTestCaseUsers(TestCase testCase) {
+        String key = TEST_CASE_USERS + ":" + testCase.getApplication() + ":" + testCase.getDataset()
+                + ":" + String.valueOf(testCase.getCpu());
+        Entry entry = lookup(key);
+        if (entry == null) {
+            long start = System.nanoTime();
+            TreeMap users = database != null ? database.getTestCaseUsers(testCase) : null;
+            if (metrics != null && database != null) {
+                metrics.stop("db." + TEST_CASE_USERS, start);
+            }
+            entry = store(key, users);
+        }
+        return (TreeMap) entry.value;
+    }
+
+    /**
+     * Load the metadata of a set of machine profiles before it is needed
+     * @param profiles Machine profiles
+     */
+    public synchronized void prefetch(int[] profiles) {
+        for (int i = 0; i < profiles.length; ++i) {
+            get(BASE_RESOURCE_NAME, profiles[i]);
+            get(CACHE_SYSID, profiles[i]);
+            get(BASE_RESOURCE, profiles[i]);
+            get(MEMORY_PIDX, profiles[i]);
+            get(MACHINE_LABEL, profiles[i]);
+        }
+    }
+
+    /**
+     * Add the metadata of a machine profile to the cache without a lookup.
+     * Primed values never expire.
+     * @param profile Machine profile
+     */
+    public synchronized void prime(int profile, String baseResourceName, String machineLabel,
+            int cacheSysId, int baseResource, int memoryPIdx) {
+        store(key(BASE_RESOURCE_NAME, profile), baseResourceName, 0);
+        store(key(MACHINE_LABEL, profile), machineLabel, 0);
+        store(key(CACHE_SYSID, profile), new Integer(cacheSysId), 0);
+        store(key(BASE_RESOURCE, profile), new Integer(baseResource), 0);
+        store(key(MEMORY_PIDX, profile), new Integer(memoryPIdx), 0);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private synchronized Object get(String kind, int profile) {
+        String key = key(kind, profile);
+        Entry entry = lookup(key);
+        if (entry == null) {
+            long start = System.nanoTime();
+            entry = store(key, load(kind, profile));
+            if (metrics != null && database != null) {
+                metrics.stop("db." + kind, start);
+            }
+        }
+        return entry.value;
+    }
+
+    private Object load(String kind, int profile) {
+        if (database == null) {
+            return null;
+        }
+        if (kind.equals(BASE_RESOURCE_NAME)) {
+            return database.getBaseResourceName(profile);
+        } else if (kind.equals(CACHE_SYSID)) {
+            return new Integer(database.getCacheSysId(profile));
+        } else if (kind.equals(BASE_RESOURCE)) {
+            return new Integer(database.getBaseResource(profile));
+        } else if (kind.equals(MEMORY_PIDX)) {
+            return new Integer(database.getMemoryPIdx(profile));
+        } else if (kind.equals(MACHINE_LABEL)) {
+            return database.getMachineLabel(profile);
+        }
+        return null;
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = (Entry) entries.get(key);
+        if (entry != null && entry.expires != 0 && System.currentTimeMillis() >= entry.expires) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return entry;
+    }
+
+    private Entry store(String key, Object value) {
+        return store(key, value, isMiss(value) ? missTtl : ttl);
+    }
+
+    private Entry store(String key, Object value, long ttlMillis) {
+        Entry entry = new Entry();
+        entry.value = value;
+        entry.expires = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+        entries.put(key, entry);
+        return entry;
+    }
+
+    private static boolean isMiss(Object value) {
+        return value == null || value instanceof Integer && ((Integer) value).intValue() < 0;
+    }
+
+    private static String key(String kind, int profile) {
+        return kind + ":" + String.valueOf(profile);
+    }
+
+    private static int intValue(Object value) {
+        return value != null ? ((Integer) value).intValue() : 0;
+    }
+}
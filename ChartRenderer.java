@@ -0,0 +1,174 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jfree.chart.*;
+
+/**
+ * Renders charts to image files on a dedicated pool of threads. Charts are
+ * built by the caller and only the rendering and encoding is done in
+ * parallel. join must be called before the image files are used.
+ */
+class ChartRenderer {
+
+    static ExecutorService executor = null;
+    ChartWriter writer;
+    Metrics metrics = null;
+    ArrayList paths = new ArrayList();
+    ArrayList futures = new ArrayList();
+    HashMap inline = new HashMap();
+
+    /**
+     * Constructor
+     * @param writer Format in which image files are written
+     */
+    ChartRenderer(ChartWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Constructor
+     * @param writer Format in which image files are written
+     * @param metrics Metrics to which the time of each chart is added or null
+     */
+    ChartRenderer(ChartWriter writer, Metrics metrics) {
+        this.writer = writer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queue a chart for rendering
+     * @param chart The chart
+     * @param path Path of the image file
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     * @param metric Name of the timer to which the rendering time is added
+     */
+    void add(final JFreeChart chart, final String path, final int width, final int height, final String metric) {
+        paths.add(path);
+        futures.add(getExecutor().submit(new Callable() {
+
+            public Object call() throws Exception {
+                long start = System.nanoTime();
+                File parent = new File(path).getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(path));
+                try {
+                    writer.write(chart, out, width, height);
+                } finally {
+                    out.close();
+                }
+                if (metrics != null) {
+                    metrics.stop(metric, start);
+                    metrics.count(metric + ".bytes", new File(path).length());
+                }
+                return path;
+            }
+        }));
+    }
+
+    /**
+     * Queue a chart for rendering as an svg element to be embedded in a page
+     * @param name Name by which the element is retrieved with getInline
+     * @param displayWidth Width at which the element is shown in pixels
+     * @param metric Name of the timer to which the rendering time is added
+     */
+    void addInline(String name, final JFreeChart chart, final int width, final int height, final int displayWidth,
+            final String metric) {
+        inline.put(name, getExecutor().submit(new Callable() {
+
+            public Object call() throws Exception {
+                long start = System.nanoTime();
+                String element = new SvgChartWriter().getElement(chart, width, height, displayWidth);
+                if (metrics != null) {
+                    metrics.stop(metric, start);
+                    metrics.count(metric + ".bytes", element.length());
+                }
+                return element;
+            }
+        }));
+    }
+
+    /**
+     * Wait for a chart queued with addInline
+     * @param name Name the chart was queued with
+     * @return String The svg element
+     */
+    String getInline(String name) throws Exception {
+        Future future = (Future) inline.remove(name);
+        if (future == null) {
+            throw new Exception("No chart named " + name);
+        }
+        try {
+            return (String) future.get();
+        } catch (ExecutionException e) {
+            throw new Exception("Exception while rendering " + name + " " + e.getCause());
+        }
+    }
+
+    /**
+     * Wait for all queued charts to be rendered
+     * @param outputFiles List to which the path of each image file is added
+     */
+    void join(List outputFiles) throws Exception {
+        Exception failure = null;
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                ((Future) futures.get(i)).get();
+                outputFiles.add(paths.get(i));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new Exception("Exception while rendering " + paths.get(i) + " " + e.getCause());
+                }
+            }
+        }
+        paths.clear();
+        futures.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ChartRenderer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
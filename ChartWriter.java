@@ -0,0 +1,49 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+
+import org.jfree.chart.*;
+
+/**
+ * Encodes a chart into an image format. Implementations hold no state and
+ * may be used from several threads at once.
+ */
+interface ChartWriter {
+
+    /**
+     * @return String File extension of the format, without the dot
+     */
+    String getExtension();
+
+    /**
+     * Encode a chart
+     * @param chart The chart
+     * @param out Stream to which the image is written; it is not closed
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     */
+    void write(JFreeChart chart, OutputStream out, int width, int height) throws IOException;
+}
@@ -0,0 +1,208 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.awt.Color;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Colors of the events shown in the charts. The defaults can be extended or
+ * overridden by a file with one event per line:
+ * <pre>
+ * # event       red green blue   or   event #rrggbb
+ * MPI_Ineighbor_alltoall 70 130 180
+ * MPI_Mprobe   #b22222
+ * </pre>
+ * An event without a color is given one from a fixed palette chosen by the
+ * hash of its name, so it has the same color in every chart and every run,
+ * and a warning is logged once per event.
+ */
+public class EventColors {
+
+    static final Object[][] DEFAULTS = {
+        {"CPUTime", new Color(255, 0, 0)},                  //red
+        {"MPI_Allgather", new Color(255, 127, 80)},         //coral
+        {"MPI_Allgatherv", new Color(160, 82, 45)},         //sienna
+        {"MPI_Allreduce", new Color(0, 255, 0)},            //lime
+        {"MPI_Alltoall", new Color(255, 165, 0)},           //orange
+        {"MPI_Alltoallv", new Color(165, 42, 42)},          //brown
+        {"MPI_Alltoallw", new Color(205, 92, 92)},          //indian red
+        {"MPI_Barrier", new Color(255, 0, 255)},            //fuchsia
+        {"MPI_Bcast", new Color(255, 255, 0)},              //yellow
+        {"MPI_Bsend", new Color(0, 128, 0)},                //green
+        {"MPI_Bsend_init", new Color(135, 206, 235)},       //sky blue
+        {"MPI_Comm_create", new Color(238, 130, 238)},      //violet
+        {"MPI_Comm_dup", new Color(75, 0, 130)},            //indigo
+        {"MPI_Comm_free", new Color(64, 224, 208)},         //turquoise
+        {"MPI_Comm_split", new Color(46, 139, 87)},         //sea green
+        {"MPI_Exscan", new Color(233, 150, 122)},           //dark salmon
+        {"MPI_Finalize", new Color(128, 128, 0)},           //olive
+        {"MPI_Gather", new Color(220, 20, 60)},             //crimson
+        {"MPI_Gatherv", new Color(210, 180, 140)},          //tan
+        {"MPI_Iallgather", new Color(255, 160, 122)},       //light salmon
+        {"MPI_Iallgatherv", new Color(139, 69, 19)},        //saddle brown
+        {"MPI_Iallreduce", new Color(50, 205, 50)},         //lime green
+        {"MPI_Ialltoall", new Color(255, 140, 0)},          //dark orange
+        {"MPI_Ialltoallv", new Color(178, 34, 34)},         //firebrick
+        {"MPI_Ialltoallw", new Color(188, 143, 143)},       //rosy brown
+        {"MPI_Ibarrier", new Color(218, 112, 214)},         //orchid
+        {"MPI_Ibcast", new Color(255, 250, 205)},           //lemon chiffon
+        {"MPI_Ibsend", new Color(255, 105, 180)},           //hot pink
+        {"MPI_Iexscan", new Color(244, 164, 96)},           //sandy brown
+        {"MPI_Igather", new Color(199, 21, 133)},           //medium violet red
+        {"MPI_Igatherv", new Color(222, 184, 135)},         //burly wood
+        {"MPI_Init", new Color(0, 0, 0)},                   //black
+        {"MPI_Irecv", new Color(192, 192, 192)},            //silver
+        {"MPI_Ireduce", new Color(65, 105, 225)},           //royal blue
+        {"MPI_Ireduce_scatter", new Color(216, 191, 216)},  //thistle
+        {"MPI_Ireduce_scatter_block", new Color(176, 196, 222)}, //light steel blue
+        {"MPI_Irsend", new Color(221, 160, 221)},           //plum
+        {"MPI_Iscan", new Color(240, 128, 128)},            //light coral
+        {"MPI_Iscatter", new Color(219, 112, 147)},         //pale violet red
+        {"MPI_Iscatterv", new Color(205, 133, 63)},         //peru
+        {"MPI_Isend", new Color(127, 255, 0)},              //chartreuse
+        {"MPI_Issend", new Color(0, 255, 255)},             //aqua
+        {"MPI_Pcontrol", new Color(176, 224, 230)},         //powder blue
+        {"MPI_Recv", new Color(0, 128, 128)},               //teal
+        {"MPI_Recv_init", new Color(153, 102, 204)},        //amethyst
+        {"MPI_Reduce", new Color(0, 0, 128)},               //navy
+        {"MPI_Reduce_scatter", new Color(230, 230, 250)},   //lavender
+        {"MPI_Reduce_scatter_block", new Color(119, 136, 153)}, //light slate gray
+        {"MPI_Request_free", new Color(106, 90, 205)},      //slate blue
+        {"MPI_Rsend", new Color(240, 230, 140)},            //khaki
+        {"MPI_Rsend_init", new Color(0, 100, 0)},           //dark green
+        {"MPI_Scan", new Color(250, 128, 114)},             //salmon
+        {"MPI_Scatter", new Color(255, 192, 203)},          //pink
+        {"MPI_Scatterv", new Color(210, 105, 30)},          //chocolate
+        {"MPI_Ssend", new Color(128, 0, 128)},              //purple
+        {"MPI_Ssend_init", new Color(255, 215, 0)},         //gold
+        {"MPI_Send", new Color(128, 128, 128)},             //gray
+        {"MPI_Send_init", new Color(189, 183, 107)},        //dark khaki
+        {"MPI_Sendrecv", new Color(112, 128, 144)},         //slate gray
+        {"MPI_Start", new Color(127, 255, 212)},            //aquamarine
+        {"MPI_Startall", new Color(144, 238, 144)},         //light green
+        {"MPI_Wait", new Color(245, 222, 179)},             //wheat
+        {"MPI_Waitall", new Color(128, 0, 0)},              //maroon
+        {"MPI_Waitany", new Color(0, 0, 255)},              //blue
+        {"MPI_Waitsome", new Color(218, 165, 32)},          //goldenrod
+        {"Other", new Color(255, 255, 255)}                 //white
+    };
+    static final Color[] PALETTE = {
+        new Color(31, 119, 180), new Color(174, 199, 232), new Color(44, 160, 44), new Color(152, 223, 138),
+        new Color(214, 39, 40), new Color(255, 152, 150), new Color(148, 103, 189), new Color(197, 176, 213),
+        new Color(140, 86, 75), new Color(196, 156, 148), new Color(227, 119, 194), new Color(247, 182, 210),
+        new Color(127, 127, 127), new Color(188, 189, 34), new Color(23, 190, 207), new Color(158, 218, 229)
+    };
+    static EventColors defaults = null;
+    final Map colors;
+    final Set warned = Collections.synchronizedSet(new HashSet());
+
+    private EventColors(Map colors) {
+        this.colors = Collections.unmodifiableMap(colors);
+    }
+
+    /**
+     * @return EventColors The built-in colors
+     */
+    public static synchronized EventColors getDefault() {
+        if (defaults == null) {
+            defaults = new EventColors(getDefaultMap());
+        }
+        return defaults;
+    }
+
+    /**
+     * Load the built-in colors and the colors in a file, which take precedence
+     * @param file Path of the file
+     * @return EventColors The colors or null if the file cannot be read
+     */
+    public static EventColors load(String file) {
+        HashMap colors = getDefaultMap();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                Color color = parseColor(fields);
+                if (color == null) {
+                    Logger.warn("Ignoring line " + lineNumber + " of " + file + ": " + line);
+                    continue;
+                }
+                colors.put(fields[0], color);
+            }
+            reader.close();
+        } catch (IOException e) {
+            Logger.warn("Unable to read event colors from " + file + " " + e);
+            return null;
+        }
+        return new EventColors(colors);
+    }
+
+    /**
+     * Get the color of an event
+     * @param event Name of the event
+     * @return Color The color; never null
+     */
+    public Color get(String event) {
+        Color color = (Color) colors.get(event);
+        if (color != null) {
+            return color;
+        }
+        if (warned.add(event)) {
+            ReportContext.warnCurrent("No Color has been defined for " + event);
+        }
+        return PALETTE[(event.hashCode() & 0x7fffffff) % PALETTE.length];
+    }
+
+    private static HashMap getDefaultMap() {
+        HashMap colors = new HashMap();
+        for (int i = 0; i < DEFAULTS.length; ++i) {
+            colors.put(DEFAULTS[i][0], DEFAULTS[i][1]);
+        }
+        return colors;
+    }
+
+    private static Color parseColor(String[] fields) {
+        try {
+            if (fields.length == 2 && fields[1].startsWith("#") && fields[1].length() == 7) {
+                return new Color(Integer.parseInt(fields[1].substring(1), 16));
+            }
+            if (fields.length == 4) {
+                return new Color(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+            }
+        } catch (IllegalArgumentException e) {
+            // malformed number or component out of range
+        }
+        return null;
+    }
+}
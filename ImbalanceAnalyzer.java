@@ -0,0 +1,242 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.*;
+
+/**
+ * Load imbalance of each event across the tasks of a PSiNS run, along with
+ * the total time of each task. Each event's column of task times is scanned
+ * once for its sum, extremes and slowest tasks. Percentiles are found by
+ * quickselect on a copy of the column. A second scan counts the tasks in
+ * equal-width bins between the extremes. Groups of tasks with similar times
+ * are found by one-dimensional k-means over the bins, so no step sorts the
+ * tasks. Each group is a contiguous range of bins, so prefix sums give every
+ * group's mean and an iteration costs one binary search per boundary.
+ */
+class ImbalanceAnalyzer {
+
+    static final String TOTAL = "Total";
+    static final int TOP_TASKS = 5;
+    static final int CLUSTERS = 3;
+    static final int MAX_ITERATIONS = 50;
+    static final int BINS = 1024;
+    static final double[] PERCENTILES = {50.0, 90.0, 99.0};
+
+    /**
+     * Imbalance of one event
+     */
+    static class EventImbalance {
+
+        String event;
+        double min;
+        double mean;
+        double max;
+        double ratio;               // max / mean; 1 is perfectly balanced
+        double[] percentiles;       // at PERCENTILES
+        int[] slowestTasks;         // slowest first
+        double[] slowestTimes;
+        double[] clusterCenters;    // fastest group first
+        int[] clusterSizes;
+    }
+
+    double[] column;
+    double[] selected;
+    long[] counts = new long[BINS + 1];         // prefix counts and sums of the bins
+    double[] sums = new double[BINS + 1];
+
+    /**
+     * Analyze every event of a run, and the total time of each task
+     * @param table Per-task event times
+     * @param minTime Events whose slowest task takes less than this are left out
+     * @return List EventImbalance of the task totals followed by the events in order of decreasing max/mean
+     */
+    static List analyze(TaskEventTable table, double minTime) {
+        ImbalanceAnalyzer analyzer = new ImbalanceAnalyzer(table.getTaskCount());
+        int tasks = table.getTaskCount();
+        double[] totals = new double[tasks];
+        for (int i = 0; i < tasks; ++i) {
+            totals[i] = table.getTaskTotal(i);
+        }
+        List events = new ArrayList();
+        for (int e = 0; e < table.getEventCount(); ++e) {
+            table.getColumn(e, analyzer.column);
+            EventImbalance imbalance = analyzer.analyze(table.getEventName(e), analyzer.column);
+            if (imbalance.max >= minTime) {
+                events.add(imbalance);
+            }
+        }
+        Collections.sort(events, new Comparator() {
+
+            public int compare(Object a, Object b) {
+                return Double.compare(((EventImbalance) b).ratio, ((EventImbalance) a).ratio);
+            }
+        });
+        events.add(0, analyzer.analyze(TOTAL, totals));
+        return events;
+    }
+
+    ImbalanceAnalyzer(int tasks) {
+        column = new double[tasks];
+        selected = new double[tasks];
+    }
+
+    EventImbalance analyze(String event, double[] times) {
+        int n = selected.length;
+        EventImbalance result = new EventImbalance();
+        result.event = event;
+        int top = Math.min(TOP_TASKS, n);
+        int[] slowest = new int[top];
+        double[] slowestTimes = new double[top];
+        int found = 0;
+        double sum = 0.0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; ++i) {
+            double time = times[i];
+            sum += time;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            if (found < top || time > slowestTimes[top - 1]) {                                     //insert into the slowest tasks
+                int j = found < top ? found++ : top - 1;
+                for (; j > 0 && slowestTimes[j - 1] < time; --j) {
+                    slowest[j] = slowest[j - 1];
+                    slowestTimes[j] = slowestTimes[j - 1];
+                }
+                slowest[j] = i;
+                slowestTimes[j] = time;
+            }
+        }
+        result.min = min;
+        result.max = max;
+        result.mean = sum / n;
+        result.ratio = result.mean > 0.0 ? max / result.mean : 1.0;
+        result.slowestTasks = slowest;
+        result.slowestTimes = slowestTimes;
+        System.arraycopy(times, 0, selected, 0, n);
+        result.percentiles = new double[PERCENTILES.length];
+        int from = 0;
+        for (int p = 0; p < PERCENTILES.length; ++p) {                                             //percentiles are ascending so each select searches above the last
+            int rank = Math.max(from, Math.min(n - 1, (int) Math.ceil(PERCENTILES[p] / 100.0 * n) - 1));
+            result.percentiles[p] = select(selected, from, n - 1, rank);
+            from = rank;
+        }
+        cluster(result, times);
+        return result;
+    }
+
+    // Lloyd's algorithm on the binned times, starting from evenly spaced values
+    private void cluster(EventImbalance result, double[] times) {
+        int n = times.length;
+        int k = result.min == result.max ? 1 : Math.min(CLUSTERS, n);
+        if (k == 1) {
+            result.clusterCenters = new double[]{result.mean};
+            result.clusterSizes = new int[]{n};
+            return;
+        }
+        Arrays.fill(counts, 0);
+        Arrays.fill(sums, 0.0);
+        double scale = BINS / (result.max - result.min);
+        for (int i = 0; i < n; ++i) {
+            int bin = Math.min(BINS - 1, (int) ((times[i] - result.min) * scale));
+            ++counts[bin + 1];
+            sums[bin + 1] += times[i];
+        }
+        for (int b = 0; b < BINS; ++b) {
+            counts[b + 1] += counts[b];
+            sums[b + 1] += sums[b];
+        }
+        double[] centers = new double[k];
+        for (int c = 0; c < k; ++c) {
+            centers[c] = result.min + (c + 0.5) * (result.max - result.min) / k;
+        }
+        int[] bounds = new int[k + 1];                                                             //group c is bins bounds[c] to bounds[c + 1] - 1
+        bounds[k] = BINS;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            boolean changed = false;
+            for (int c = 1; c < k; ++c) {
+                double split = ((centers[c - 1] + centers[c]) / 2.0 - result.min) * scale;
+                int bound = Math.max(bounds[c - 1], Math.min(BINS, (int) Math.ceil(split)));
+                changed |= bound != bounds[c];
+                bounds[c] = bound;
+            }
+            for (int c = 0; c < k; ++c) {
+                long count = counts[bounds[c + 1]] - counts[bounds[c]];
+                if (count > 0) {
+                    centers[c] = (sums[bounds[c + 1]] - sums[bounds[c]]) / count;
+                }
+            }
+            if (!changed && iteration > 0) {
+                break;
+            }
+        }
+        int groups = 0;
+        for (int c = 0; c < k; ++c) {
+            groups += counts[bounds[c + 1]] > counts[bounds[c]] ? 1 : 0;
+        }
+        result.clusterCenters = new double[groups];
+        result.clusterSizes = new int[groups];
+        for (int c = 0, g = 0; c < k; ++c) {
+            long count = counts[bounds[c + 1]] - counts[bounds[c]];
+            if (count > 0) {
+                result.clusterCenters[g] = centers[c];
+                result.clusterSizes[g++] = (int) count;
+            }
+        }
+    }
+
+    // the value that would be at index rank if values[low..high] were sorted
+    private static double select(double[] values, int low, int high, int rank) {
+        while (low < high) {
+            double pivot = median(values[low], values[(low + high) >>> 1], values[high]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    ++i;
+                }
+                while (values[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (rank <= j) {
+                high = j;
+            } else if (rank >= i) {
+                low = i;
+            } else {
+                return values[rank];
+            }
+        }
+        return values[rank];
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+}
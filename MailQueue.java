@@ -0,0 +1,310 @@
+package PSaPP.util;
+/*
+Copyright (c) 2010, The Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.FileNotFoundException;
+import java.util.*;
+import javax.mail.*;
+import javax.mail.internet.*;
+
+/**
+ * Outbound email queue. Messages are sent by a background thread over a
+ * single SMTP connection which is reused for as long as it stays open.
+ * A message which cannot be sent is retried up to MAX_RETRIES times with an
+ * increasing delay. Failures that would recur on every attempt are not
+ * retried: a rejected recipient, a malformed address, a missing attachment
+ * or a message that cannot be built.
+ * close() sends everything still queued before it returns, and a shutdown
+ * hook does the same if the JVM exits first.
+ */
+public class MailQueue {
+
+    static final int MAX_RETRIES = 4;
+    static final long INITIAL_BACKOFF = 2000;
+    long initialBackoff = INITIAL_BACKOFF;
+    Session session;
+    LinkedList queue = new LinkedList();
+    Transport transport = null;
+    Thread sender;
+    Thread shutdownHook;
+    boolean closed = false;
+    int sent = 0;
+    int failed = 0;
+    HashSet sentTags = new HashSet();
+    Metrics metrics;
+
+    static class Item {
+
+        String[] to;
+        String[] cc;
+        String subject;
+        String body;
+        String[] attachments;
+        String archiveName;
+        Collection tags;
+    }
+
+    /**
+     * Constructor; the SMTP settings are read from the config file
+     */
+    public MailQueue() throws Exception {
+        this(Util.createSession(), null);
+    }
+
+    /**
+     * Constructor; the SMTP settings are read from the config file
+     * @param metrics Metrics to which each send attempt is added or null
+     */
+    public MailQueue(Metrics metrics) throws Exception {
+        this(Util.createSession(), metrics);
+    }
+
+    /**
+     * Constructor
+     * @param mailSession Session which holds the SMTP settings and the mail.from sender
+     */
+    public MailQueue(Session mailSession) {
+        this(mailSession, null);
+    }
+
+    /**
+     * Constructor
+     * @param mailSession Session which holds the SMTP settings and the mail.from sender
+     * @param metrics Metrics to which each send attempt is added or null
+     */
+    public MailQueue(Session mailSession, Metrics metrics) {
+        session = mailSession;
+        this.metrics = metrics;
+        sender = new Thread(new Runnable() {
+
+            public void run() {
+                sendAll();
+            }
+        }, "MailQueue");
+        sender.setDaemon(true);
+        sender.start();
+        shutdownHook = new Thread(new Runnable() {
+
+            public void run() {
+                close();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue a message. Attachments are read when the message is sent so they
+     * must not be deleted before close() returns.
+     */
+    public void enqueue(String[] to, String[] cc, String subject, String body, String[] attachments) {
+        enqueue(to, cc, subject, body, attachments, null);
+    }
+
+    /**
+     * Queue a message whose attachments are sent as a single zip archive
+     * @param archiveName File name of the archive; if null the files are attached separately
+     */
+    public void enqueue(String[] to, String[] cc, String subject, String body, String[] attachments, String archiveName) {
+        enqueue(to, cc, subject, body, attachments, archiveName, null);
+    }
+
+    /**
+     * Queue a message on behalf of some objects, e.g. the reports it carries
+     * @param archiveName File name of the archive; if null the files are attached separately
+     * @param tags Objects returned by getSentTags() once the message has been sent; may be null
+     */
+    public synchronized void enqueue(String[] to, String[] cc, String subject, String body, String[] attachments, String archiveName,
+            Collection tags) {
+        if (closed) {
+            Logger.error("Email message " + subject + " queued after the mail queue was closed");
+            ++failed;
+            return;
+        }
+        Item item = new Item();
+        item.to = to;
+        item.cc = cc;
+        item.subject = subject;
+        item.body = body;
+        item.attachments = attachments;
+        item.archiveName = archiveName;
+        item.tags = tags;
+        queue.addLast(item);
+        notifyAll();
+    }
+
+    /**
+     * Send all queued messages and stop the sender thread
+     * @return int Number of messages which could not be sent
+     */
+    public int close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            if (Thread.currentThread() != sender) {
+                sender.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is already shutting down
+        }
+        return getFailed();
+    }
+
+    public synchronized int getSent() {
+        return sent;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return Set The tags of every message which has been sent
+     */
+    public synchronized Set getSentTags() {
+        return new HashSet(sentTags);
+    }
+
+    private void sendAll() {
+        while (true) {
+            Item item;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    break;
+                }
+                item = (Item) queue.removeFirst();
+            }
+            boolean success = send(item);
+            synchronized (this) {
+                if (success) {
+                    ++sent;
+                    if (item.tags != null) {
+                        sentTags.addAll(item.tags);
+                    }
+                } else {
+                    ++failed;
+                }
+            }
+        }
+        disconnect();
+    }
+
+    private boolean send(Item item) {
+        MimeMessage message;
+        try {
+            message = Util.createMessage(session, item.to, item.cc, item.subject, item.body,
+                    item.attachments, item.archiveName);
+            if (message == null) {
+                return false;
+            }
+            message.saveChanges();
+        } catch (Exception e) {
+            Logger.error("Unable to create email message " + item.subject + " " + e);
+            return false;
+        }
+        long backoff = initialBackoff;
+        for (int attempt = 0; attempt <= MAX_RETRIES; ++attempt) {
+            long start = System.nanoTime();
+            try {
+                if (transport == null || !transport.isConnected()) {
+                    transport = session.getTransport("smtp");
+                    transport.connect();
+                }
+                transport.sendMessage(message, message.getAllRecipients());
+                if (metrics != null) {
+                    metrics.stop("email.send", start);
+                }
+                return true;
+            } catch (Exception e) {
+                if (metrics != null) {
+                    metrics.stop("email.failed_attempt", start);
+                }
+                disconnect();
+                if (isPermanent(e)) {
+                    Logger.error("Unable to send email message " + item.subject + "; not retried " + e);
+                    return false;
+                }
+                if (attempt == MAX_RETRIES) {
+                    Logger.error("Unable to send email message " + item.subject + " after " + String.valueOf(MAX_RETRIES) + " retries " + e);
+                    return false;
+                }
+                Logger.warn("Retrying email message " + item.subject + " in " + String.valueOf(backoff / 1000.0) + "s " + e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                backoff *= 2;
+            }
+        }
+        return false;
+    }
+
+    // failures which would recur on every attempt
+    static boolean isPermanent(Exception e) {
+        // includes AddressException
+        if (e instanceof ParseException) {
+            return true;
+        }
+        // a 4xx reply has no invalid addresses
+        if (e instanceof SendFailedException) {
+            Address[] invalid = ((SendFailedException) e).getInvalidAddresses();
+            if (invalid != null && invalid.length > 0) {
+                return true;
+            }
+        }
+        // an attachment that cannot be read
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileNotFoundException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void disconnect() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // the connection is being discarded
+            }
+            transport = null;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package PSaPP.util;
+/*
+Copyright (c) 2010, The Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.util.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Timers and counters for the stages of a run. Timers are taken with
+ * System.nanoTime and record the number of calls, the total and the
+ * longest time. Where the JVM supports it cheaply, a timer can also record
+ * the bytes allocated by the timing thread. Values accumulate until clear
+ * is called and can be written as JSON, CSV or Prometheus text.
+ */
+public class Metrics {
+
+    static final String PROMETHEUS_PREFIX = "psaap_";
+    TreeMap timers = new TreeMap();
+    TreeMap counters = new TreeMap();
+    com.sun.management.ThreadMXBean threadBean = null;
+
+    static class Timer {
+
+        long count;
+        long total;
+        long max;
+    }
+
+    public Metrics() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                threadBean = sunBean;
+            }
+        }
+    }
+
+    /**
+     * @return long Start time to be passed to stop
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time since start
+     * @param name Name of the timer
+     * @param start Value returned by start
+     * @return long Elapsed time in nanoseconds
+     */
+    public long stop(String name, long start) {
+        long elapsed = System.nanoTime() - start;
+        record(name, elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Record the time since start and the bytes allocated by the current thread since allocated was called
+     * @param allocated Value returned by allocated; if negative no allocation is recorded
+     */
+    public long stop(String name, long start, long allocated) {
+        long elapsed = stop(name, start);
+        if (allocated >= 0) {
+            count(name + ".allocated_bytes", allocated() - allocated);
+        }
+        return elapsed;
+    }
+
+    /**
+     * @return long Bytes allocated so far by the current thread or -1 if this is not supported
+     */
+    public long allocated() {
+        return threadBean != null ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    /**
+     * Add to a counter
+     * @param name Name of the counter
+     * @param amount Amount to add
+     */
+    public synchronized void count(String name, long amount) {
+        long[] value = (long[]) counters.get(name);
+        if (value == null) {
+            value = new long[1];
+            counters.put(name, value);
+        }
+        value[0] += amount;
+    }
+
+    public synchronized void clear() {
+        timers.clear();
+        counters.clear();
+    }
+
+    /**
+     * Get a summary of the timers for the log, longest total time first
+     * @return String One line per timer followed by one line of counters
+     */
+    public synchronized String getSummary() {
+        List names = new ArrayList(timers.keySet());
+        Collections.sort(names, new Comparator() {
+
+            public int compare(Object a, Object b) {
+                long difference = ((Timer) timers.get(b)).total - ((Timer) timers.get(a)).total;
+                return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+            }
+        });
+        StringBuffer summary = new StringBuffer("Metrics:");
+        for (int i = 0; i < names.size(); ++i) {
+            Timer timer = (Timer) timers.get(names.get(i));
+            summary.append("\n  " + names.get(i) + " count=" + timer.count + " total=" + Format.format2d(timer.total / 1e6)
+                    + "ms mean=" + Format.format2d(timer.total / 1e6 / timer.count) + "ms max=" + Format.format2d(timer.max / 1e6) + "ms");
+        }
+        if (!counters.isEmpty()) {
+            summary.append("\n ");
+            Iterator iterator = counters.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                summary.append(" " + entry.getKey() + "=" + ((long[]) entry.getValue())[0]);
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Write the metrics to a file
+     * @param file Path of the file; written as CSV if it ends with .csv and as JSON otherwise
+     * @return boolean False if the file cannot be written
+     */
+    public boolean write(String file) {
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            if (file.endsWith(".csv")) {
+                writeCSV(out);
+            } else {
+                writeJSON(out);
+            }
+            out.close();
+            return !out.checkError();
+        } catch (IOException e) {
+            Logger.warn("Unable to write metrics file " + file + " " + e);
+            return false;
+        }
+    }
+
+    public synchronized void writeJSON(PrintWriter out) {
+        out.println("{");
+        out.println("  \"timers\": {");
+        Iterator iterator = timers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            Timer timer = (Timer) entry.getValue();
+            out.println("    \"" + entry.getKey() + "\": {\"count\": " + timer.count + ", \"total_ns\": " + timer.total
+                    + ", \"max_ns\": " + timer.max + "}" + (iterator.hasNext() ? "," : ""));
+        }
+        out.println("  },");
+        out.println("  \"counters\": {");
+        iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            out.println("    \"" + entry.getKey() + "\": " + ((long[]) entry.getValue())[0] + (iterator.hasNext() ? "," : ""));
+        }
+        out.println("  }");
+        out.println("}");
+    }
+
+    public synchronized void writeCSV(PrintWriter out) {
+        out.println("name,type,count,total_ns,max_ns,value");
+        Iterator iterator = timers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            Timer timer = (Timer) entry.getValue();
+            out.println(entry.getKey() + ",timer," + timer.count + "," + timer.total + "," + timer.max + ",");
+        }
+        iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            out.println(entry.getKey() + ",counter,,,," + ((long[]) entry.getValue())[0]);
+        }
+    }
+
+    /**
+     * @return String The metrics in the Prometheus text exposition format
+     */
+    public synchronized String toPrometheus() {
+        StringBuffer text = new StringBuffer();
+        Iterator iterator = timers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            Timer timer = (Timer) entry.getValue();
+            String name = PROMETHEUS_PREFIX + sanitize((String) entry.getKey()) + "_seconds";
+            text.append("# TYPE " + name + " summary\n");
+            text.append(name + "_sum " + (timer.total / 1e9) + "\n");
+            text.append(name + "_count " + timer.count + "\n");
+        }
+        iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            String name = PROMETHEUS_PREFIX + sanitize((String) entry.getKey()) + "_total";
+            text.append("# TYPE " + name + " counter\n");
+            text.append(name + " " + ((long[]) entry.getValue())[0] + "\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Serve the metrics as Prometheus text at /metrics on the loopback interface
+     * @param port Port to listen on
+     * @return HttpServer The running server
+     */
+    public HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] content = toPrometheus().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private synchronized void record(String name, long elapsed) {
+        Timer timer = (Timer) timers.get(name);
+        if (timer == null) {
+            timer = new Timer();
+            timers.put(name, timer);
+        }
+        ++timer.count;
+        timer.total += elapsed;
+        timer.max = Math.max(timer.max, elapsed);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+}
@@ -0,0 +1,62 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * The header of a .psinsout file. The last token of lines 1-4 holds the
+ * application, data set, cpu count and machine profile. Reading stops after
+ * line 4 so the body of the file is left to PsinsParser.
+ */
+public class PsinsHeader {
+
+    static final int HEADER_LINES = 4;
+    public String application = "";
+    public String dataSet = "";
+    public int cpuCount = 0;
+    public int machineProfile = 0;
+
+    /**
+     * Read the header of a .psinsout file
+     * @param file Path to the .psinsout file
+     * @return PsinsHeader Header fields; numeric fields are 0 if not present
+     */
+    public static PsinsHeader read(String file) throws Exception {
+        PsinsHeader header = new PsinsHeader();
+        ByteTokenizer tokenizer = ByteTokenizer.map(file);
+        while (tokenizer.getLineNumber() < HEADER_LINES && tokenizer.nextLine()) {
+            boolean found = tokenizer.lastToken();
+            int line = tokenizer.getLineNumber();
+            if (line == 1) {
+                header.application = found ? tokenizer.tokenString() : "";
+            } else if (line == 2) {
+                header.dataSet = found ? tokenizer.tokenString() : "";
+            } else if (line == 3) {
+                header.cpuCount = tokenizer.tokenStartsWithDigit() ? tokenizer.parseInt() : 0;
+            } else if (line == 4) {
+                header.machineProfile = tokenizer.tokenStartsWithDigit() ? tokenizer.parseInt() : 0;
+            }
+        }
+        return header;
+    }
+}
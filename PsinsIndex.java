@@ -0,0 +1,202 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Index of the .psinsout files in a directory built from their headers.
+ * The index is kept in a sidecar file next to the outputs and an entry is
+ * re-read only if the size or modification time of its file has changed.
+ */
+public class PsinsIndex {
+
+    static final String INDEX_FILE = ".psinsindex";
+    String dir;
+    LinkedHashMap entries = new LinkedHashMap();
+    HashMap profiles = new HashMap();
+    boolean dirty = false;
+
+    static class Entry {
+
+        String filename;
+        long size;
+        long modified;
+        PsinsHeader header;
+    }
+
+    /**
+     * Build the index for a directory, reusing the sidecar file if one exists
+     * @param dir Path to directory which contains the .psinsout files
+     * @return PsinsIndex The index or null if the directory does not exist
+     */
+    public static PsinsIndex load(String dir) throws Exception {
+        return load(dir, true);
+    }
+
+    /**
+     * Build the index for a directory, reusing the sidecar file if one exists
+     * @param dir Path to directory which contains the .psinsout files
+     * @param save If false, the sidecar file is not written even if it is out of date
+     * @return PsinsIndex The index or null if the directory does not exist
+     */
+    public static PsinsIndex load(String dir, boolean save) throws Exception {
+        if (!dir.endsWith("/")) {
+            dir += "/";
+        }
+        File[] files = new File(dir).listFiles();
+        if (files == null) {
+            return null;
+        }
+        PsinsIndex index = new PsinsIndex();
+        index.dir = dir;
+        HashMap cached = readIndexFile(new File(dir, INDEX_FILE));
+        for (int i = 0; i < files.length; ++i) {
+            if (files[i].isFile() && files[i].getName().endsWith(".psinsout")) {
+                String filename = files[i].getName();
+                Entry entry = (Entry) cached.remove(filename);
+                if (entry == null || entry.size != files[i].length() || entry.modified != files[i].lastModified()) {
+                    entry = new Entry();
+                    entry.filename = filename;
+                    entry.size = files[i].length();
+                    entry.modified = files[i].lastModified();
+                    entry.header = PsinsHeader.read(dir + filename);
+                    if (entry.header.machineProfile == 0) {
+                        ReportContext.warnCurrent("Machine profile does not exist in " + filename);
+                    }
+                    index.dirty = true;
+                }
+                index.add(entry);
+            }
+        }
+        if (!cached.isEmpty()) {
+            index.dirty = true;
+        }
+        if (index.dirty && save) {
+            index.save();
+        }
+        return index;
+    }
+
+    /**
+     * Get the first .psinsout file which contains the specified machine profile
+     * @param profile Machine profile
+     * @return String Name of the file or null if no file contains the profile
+     */
+    public String getFile(int profile) {
+        return (String) profiles.get(new Integer(profile));
+    }
+
+    /**
+     * Get the header of a .psinsout file
+     * @param filename Name of a .psinsout file in the indexed directory
+     * @return PsinsHeader The header or null if the file is not indexed
+     */
+    public PsinsHeader getHeader(String filename) {
+        Entry entry = (Entry) entries.get(filename);
+        return entry != null ? entry.header : null;
+    }
+
+    /**
+     * Get the names of all indexed .psinsout files in directory order
+     * @return List Names of the .psinsout files
+     */
+    public List getFiles() {
+        return new ArrayList(entries.keySet());
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.filename, entry);
+        Integer profile = new Integer(entry.header.machineProfile);
+        if (entry.header.machineProfile != 0 && !profiles.containsKey(profile)) {
+            profiles.put(profile, entry.filename);
+        }
+    }
+
+    private void save() {
+        File file = new File(dir, INDEX_FILE);
+        File temp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temp)));
+            try {
+                Iterator iterator = entries.values().iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = (Entry) iterator.next();
+                    out.println(entry.filename + "\t" + String.valueOf(entry.size) + "\t" + String.valueOf(entry.modified)
+                            + "\t" + String.valueOf(entry.header.cpuCount) + "\t" + String.valueOf(entry.header.machineProfile)
+                            + "\t" + entry.header.application + "\t" + entry.header.dataSet);
+                }
+            } finally {
+                out.close();
+            }
+            if (out.checkError()) {                                                                //PrintWriter does not throw on a failed write
+                throw new IOException("write failed");
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+            dirty = false;
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Unable to write index file " + file.getPath() + " " + e);
+            temp.delete();
+        }
+    }
+
+    private static HashMap readIndexFile(File file) {
+        HashMap cached = new HashMap();
+        if (!file.isFile()) {
+            return cached;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 7) {
+                        continue;
+                    }
+                    Entry entry = new Entry();
+                    entry.filename = fields[0];
+                    entry.size = Long.parseLong(fields[1]);
+                    entry.modified = Long.parseLong(fields[2]);
+                    entry.header = new PsinsHeader();
+                    entry.header.cpuCount = Integer.parseInt(fields[3]);
+                    entry.header.machineProfile = Integer.parseInt(fields[4]);
+                    entry.header.application = fields[5];
+                    entry.header.dataSet = fields[6];
+                    cached.put(entry.filename, entry);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable index file " + file.getPath() + " " + e);
+            cached.clear();
+        }
+        return cached;
+    }
+}
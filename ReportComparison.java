@@ -0,0 +1,524 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares the results of two PSiNS runs. The .psinsout files of the two
+ * directories are matched by application, data set, cpu count and machine
+ * profile. Both files of a match and their stats files are parsed on the pool
+ * at the same time. Each match is compared by:
+ * <ul>
+ * <li>its runtime totals</li>
+ * <li>the share of time of each event</li>
+ * <li>the time of each function</li>
+ * <li>the share of time at each cache level</li>
+ * <li>the spread of task times</li>
+ * </ul>
+ * Times are compared by percent change and shares by the difference in
+ * percentage points, each against its own threshold. The full diff is written
+ * as JSON and the changes beyond the thresholds are summarized in HTML, both
+ * in the directory of the second run. Nothing else is written to either
+ * directory: cached results and the .psinsout index are read if they are up
+ * to date but are not written.
+ */
+class ReportComparison {
+
+    static final String DIFF_FILE = "psins_compare.json";
+    static final String SUMMARY_FILE = "psins_compare.html";
+    static final double DEFAULT_THRESHOLD = 5.0;
+    static final double DEFAULT_SHARE_THRESHOLD = 1.0;
+    Reporter a;
+    Reporter b;
+    int threads;
+    double threshold = DEFAULT_THRESHOLD;
+    double shareThreshold = DEFAULT_SHARE_THRESHOLD;
+    ArrayList matches = new ArrayList();
+    ArrayList onlyA = new ArrayList();
+    ArrayList onlyB = new ArrayList();
+
+    static class Delta {
+
+        String kind;
+        String name;
+        double a;
+        double b;
+        double change;              // percent change, or points for a share
+        boolean share;
+        boolean flagged;
+    }
+
+    static class Match {
+
+        String application;
+        String dataSet;
+        int cpuCount;
+        int profile;
+        String fileA;
+        String fileB;
+        ArrayList deltas = new ArrayList();
+        int flagged = 0;
+        boolean parsed = false;
+    }
+
+    /**
+     * @param a Reporter of the baseline directory
+     * @param b Reporter of the directory compared with it
+     * @param threads Number of files parsed concurrently; at least 2 so both sides are parsed together
+     */
+    ReportComparison(Reporter a, Reporter b, int threads) {
+        this.a = a;
+        this.b = b;
+        this.threads = Math.max(2, threads);
+    }
+
+    /**
+     * @param threshold Percent change of a time beyond which it is flagged
+     * @param shareThreshold Change in percentage points of a share of time beyond which it is flagged
+     */
+    void setThresholds(double threshold, double shareThreshold) {
+        this.threshold = threshold;
+        this.shareThreshold = shareThreshold;
+    }
+
+    /**
+     * Compare the directories and write the diff and summary
+     * @return boolean False if a directory cannot be read or the output cannot be written
+     */
+    boolean run() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future indexA = executor.submit(getIndexTask(a));
+            Future indexB = executor.submit(getIndexTask(b));
+            Map runsA = (Map) indexA.get();
+            Map runsB = (Map) indexB.get();
+            if (runsA == null || runsB == null) {
+                return false;
+            }
+            match(runsA, runsB);
+            List futures = new ArrayList();
+            for (int i = 0; i < matches.size(); ++i) {
+                Match match = (Match) matches.get(i);
+                futures.add(executor.submit(getParseTask(a, match.fileA)));
+                futures.add(executor.submit(getParseTask(b, match.fileB)));
+            }
+            for (int i = 0; i < matches.size(); ++i) {                                             //results are handled in match order
+                Match match = (Match) matches.get(i);
+                ReportContext ctxA = getResult((Future) futures.get(2 * i), match.fileA);
+                ReportContext ctxB = getResult((Future) futures.get(2 * i + 1), match.fileB);
+                if (ctxA != null && ctxB != null) {
+                    compare(match, ctxA, ctxB);
+                    match.parsed = true;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        int flagged = 0;
+        for (int i = 0; i < matches.size(); ++i) {
+            flagged += ((Match) matches.get(i)).flagged;
+        }
+        Logger.inform("Compared " + matches.size() + " run(s) of " + a.outputDir + " and " + b.outputDir + "; "
+                + flagged + " change(s) beyond thresholds");
+        return writeDiff(new File(b.outputDir, DIFF_FILE)) && writeSummary(new File(b.outputDir, SUMMARY_FILE));
+    }
+
+    private Callable getIndexTask(final Reporter reporter) {
+        return new Callable() {
+
+            public Object call() throws Exception {
+                List files = reporter.getPsinsFiles();
+                if (files == null) {
+                    Logger.warn("Directory " + reporter.outputDir + " does not exist");
+                    return null;
+                }
+                Map runs = new LinkedHashMap();
+                for (int i = 0; i < files.size(); ++i) {
+                    String filename = (String) files.get(i);
+                    PsinsHeader header = reporter.getHeader(filename);
+                    String key = header.application + "\t" + header.dataSet + "\t" + header.cpuCount + "\t" + header.machineProfile;
+                    if (runs.containsKey(key)) {
+                        Logger.warn("Ignoring " + reporter.outputDir + filename + "; it is the same run as " + runs.get(key));
+                        continue;
+                    }
+                    runs.put(key, filename);
+                }
+                return runs;
+            }
+        };
+    }
+
+    private Callable getParseTask(final Reporter reporter, final String filename) {
+        return new Callable() {
+
+            public Object call() throws Exception {
+                return reporter.parseRun(filename);
+            }
+        };
+    }
+
+    private ReportContext getResult(Future future, String filename) throws InterruptedException {
+        try {
+            ReportContext ctx = (ReportContext) future.get();
+            if (ctx != null) {
+                ctx.flushLog();
+            }
+            return ctx;
+        } catch (ExecutionException e) {
+            Logger.warn("Exception while parsing " + filename + " " + e.getCause());
+            return null;
+        }
+    }
+
+    private void match(Map runsA, Map runsB) throws Exception {
+        Iterator iterator = runsA.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            String fileB = (String) runsB.get(entry.getKey());
+            if (fileB == null) {
+                onlyA.add(entry.getValue());
+                continue;
+            }
+            PsinsHeader header = a.getHeader((String) entry.getValue());
+            Match match = new Match();
+            match.application = header.application;
+            match.dataSet = header.dataSet;
+            match.cpuCount = header.cpuCount;
+            match.profile = header.machineProfile;
+            match.fileA = (String) entry.getValue();
+            match.fileB = fileB;
+            matches.add(match);
+        }
+        iterator = runsB.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            if (!runsA.containsKey(entry.getKey())) {
+                onlyB.add(entry.getValue());
+            }
+        }
+    }
+
+    private void compare(Match match, ReportContext ctxA, ReportContext ctxB) {
+        PsinsData dataA = ctxA.psinsData;
+        PsinsData dataB = ctxB.psinsData;
+        addTime(match, "runtime", "Prediction", dataA.totalPredictionTime, dataB.totalPredictionTime);
+        addTime(match, "runtime", "Communication", dataA.totalCommunicationTime, dataB.totalCommunicationTime);
+        addTime(match, "runtime", "Computation", dataA.totalComputationTime, dataB.totalComputationTime);
+        Map etimesA = getEventShares(dataA);
+        Map etimesB = getEventShares(dataB);
+        Iterator iterator = union(etimesA, etimesB).iterator();
+        while (iterator.hasNext()) {
+            String event = (String) iterator.next();
+            addShare(match, "etime", event, getValue(etimesA, event), getValue(etimesB, event));
+        }
+        if (ctxA.funcData != null && ctxB.funcData != null) {
+            Map funcsA = getFunctionTimes(ctxA.funcData);
+            Map funcsB = getFunctionTimes(ctxB.funcData);
+            iterator = union(funcsA, funcsB).iterator();
+            while (iterator.hasNext()) {
+                String name = (String) iterator.next();
+                addTime(match, "function", name, getValue(funcsA, name), getValue(funcsB, name));
+            }
+        }
+        if (ctxA.binsData != null && ctxB.binsData != null) {
+            double[] ratesA = getHitRates(ctxA.binsData);
+            double[] ratesB = getHitRates(ctxB.binsData);
+            String[] levels = {"L1", "L2", "L3", "Main memory"};
+            for (int i = 0; i < levels.length; ++i) {
+                addShare(match, "hit_rate", levels[i], ratesA[i], ratesB[i]);
+            }
+        }
+        if (ctxA.taskData != null && ctxB.taskData != null) {
+            addTime(match, "task", "Min", ctxA.taskData.min, ctxB.taskData.min);
+            addTime(match, "task", "Max", ctxA.taskData.max, ctxB.taskData.max);
+            addTime(match, "task", "Mean", ctxA.taskData.avg, ctxB.taskData.avg);
+            addTime(match, "task", "Standard Deviation", ctxA.taskData.standardDeviation, ctxB.taskData.standardDeviation);
+        }
+    }
+
+    private void addTime(Match match, String kind, String name, double valueA, double valueB) {
+        Delta delta = new Delta();
+        delta.kind = kind;
+        delta.name = name;
+        delta.a = valueA;
+        delta.b = valueB;
+        if (valueA != 0.0) {
+            delta.change = (valueB - valueA) / Math.abs(valueA) * 100;
+            delta.flagged = Math.abs(delta.change) > threshold;
+        } else {
+            delta.change = Double.NaN;                                                             //no baseline to compare with
+            delta.flagged = valueB != 0.0;
+        }
+        add(match, delta);
+    }
+
+    private void addShare(Match match, String kind, String name, double valueA, double valueB) {
+        Delta delta = new Delta();
+        delta.kind = kind;
+        delta.name = name;
+        delta.a = valueA;
+        delta.b = valueB;
+        delta.share = true;
+        delta.change = valueB - valueA;
+        delta.flagged = Math.abs(delta.change) > shareThreshold;
+        add(match, delta);
+    }
+
+    private void add(Match match, Delta delta) {
+        match.deltas.add(delta);
+        if (delta.flagged) {
+            ++match.flagged;
+        }
+    }
+
+    private static Map getEventShares(PsinsData data) {
+        Map shares = new LinkedHashMap();
+        Iterator iterator = data.etimes.iterator();
+        while (iterator.hasNext()) {
+            Event event = (Event) iterator.next();
+            shares.put(event.eventType, new Double(event.value));
+        }
+        return shares;
+    }
+
+    private static Map getFunctionTimes(FuncData data) {
+        Map times = new LinkedHashMap();
+        Iterator iterator = data.funcTimes.iterator();
+        while (iterator.hasNext()) {
+            FuncTime funcTime = (FuncTime) iterator.next();
+            times.put(funcTime.name, new Double(getValue(times, funcTime.name) + funcTime.time));
+        }
+        return times;
+    }
+
+    private static double[] getHitRates(BinsData data) {
+        double total = data.timeL1 + data.timeL2 + data.timeL3 + data.timeMM;
+        double[] rates = new double[4];
+        if (total > 0.0) {
+            rates[0] = data.timeL1 / total * 100;
+            rates[1] = data.timeL2 / total * 100;
+            rates[2] = data.timeL3 / total * 100;
+            rates[3] = data.timeMM / total * 100;
+        }
+        return rates;
+    }
+
+    private static Set union(Map first, Map second) {
+        Set keys = new LinkedHashSet(first.keySet());
+        keys.addAll(second.keySet());
+        return keys;
+    }
+
+    private static double getValue(Map values, String key) {
+        Double value = (Double) values.get(key);
+        return value != null ? value.doubleValue() : 0.0;
+    }
+
+    private boolean writeDiff(File file) {
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            out.println("{");
+            out.println("  \"a\": " + quote(a.outputDir) + ",");
+            out.println("  \"b\": " + quote(b.outputDir) + ",");
+            out.println("  \"threshold_percent\": " + threshold + ",");
+            out.println("  \"share_threshold_points\": " + shareThreshold + ",");
+            out.println("  \"runs\": [");
+            for (int i = 0; i < matches.size(); ++i) {
+                Match match = (Match) matches.get(i);
+                out.println("    {\"application\": " + quote(match.application) + ", \"data_set\": " + quote(match.dataSet)
+                        + ", \"cpu_count\": " + match.cpuCount + ", \"profile\": " + match.profile + ",");
+                out.println("     \"file_a\": " + quote(match.fileA) + ", \"file_b\": " + quote(match.fileB)
+                        + ", \"parsed\": " + match.parsed + ", \"flagged\": " + match.flagged + ",");
+                out.println("     \"deltas\": [");
+                for (int d = 0; d < match.deltas.size(); ++d) {
+                    Delta delta = (Delta) match.deltas.get(d);
+                    out.println("       {\"kind\": " + quote(delta.kind) + ", \"name\": " + quote(delta.name)
+                            + ", \"a\": " + delta.a + ", \"b\": " + delta.b
+                            + ", \"" + (delta.share ? "change_points" : "change_percent") + "\": "
+                            + (Double.isNaN(delta.change) ? "null" : String.valueOf(delta.change))
+                            + ", \"flagged\": " + delta.flagged + "}" + (d + 1 < match.deltas.size() ? "," : ""));
+                }
+                out.println("     ]}" + (i + 1 < matches.size() ? "," : ""));
+            }
+            out.println("  ],");
+            out.println("  \"only_a\": " + toJSON(onlyA) + ",");
+            out.println("  \"only_b\": " + toJSON(onlyB));
+            out.println("}");
+            out.close();
+            if (out.checkError()) {
+                Logger.warn("Error while writing " + file.getPath());
+                return false;
+            }
+        } catch (IOException e) {
+            Logger.warn("Unable to write comparison " + file.getPath() + " " + e);
+            return false;
+        }
+        Logger.inform("Comparison written to " + file.getPath());
+        return true;
+    }
+
+    private boolean writeSummary(File file) {
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            writer.println("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
+            writer.println("<html>");
+            writer.println("<head>");
+            writer.println("<title>PSiNS Comparison</title>");
+            writer.println("<link rel=\"stylesheet\" href=\"pmac-tools-report.css\">");
+            writer.println("</head>");
+            writer.println("<body>");
+            writer.println("<div id=\"container\">");
+            writer.println("<div id=\"intro\">");                                                  //Comparison Summary
+            writer.println("<h1>PSiNS Comparison</h1>");
+            writer.println("<table>");
+            writer.println("<tr><td><b>Baseline:</b>" + escape(a.outputDir) + "</td></tr>");
+            writer.println("<tr><td><b>Compared:</b>" + escape(b.outputDir) + "</td></tr>");
+            writer.println("<tr><td><b>Thresholds:</b>" + threshold + "% change of a time, "
+                    + shareThreshold + " points change of a share</td></tr>");
+            writer.println("</table>");
+            writer.println("</div>"); //intro
+            writer.println("<div id=\"supportingdata\">");                                         //Runs
+            writer.println("<h1>Runs</h1>");
+            writer.println("<table>");
+            writer.println("<tr>");
+            writer.println("<th>Application</th>");
+            writer.println("<th>Data Set</th>");
+            writer.println("<th>CPU Count</th>");
+            writer.println("<th>Machine</th>");
+            writer.println("<th>Runtime</th>");
+            writer.println("<th>Changes</th>");
+            writer.println("</tr>");
+            for (int i = 0; i < matches.size(); ++i) {
+                Match match = (Match) matches.get(i);
+                writer.println("<tr>");
+                writer.println("<td><a href=\"#run" + i + "\">" + escape(match.application) + "</a></td>");
+                writer.println("<td>" + escape(match.dataSet) + "</td>");
+                writer.println("<td>" + match.cpuCount + "</td>");
+                writer.println("<td>" + escape(a.cachedDatabase.getMachineLabel(match.profile)) + "</td>");
+                writer.println("<td>" + (match.parsed ? formatChange((Delta) match.deltas.get(0)) : "not parsed") + "</td>");
+                writer.println("<td>" + match.flagged + "</td>");
+                writer.println("</tr>");
+            }
+            writer.println("</table>");
+            writer.println("</div>");
+            for (int i = 0; i < matches.size(); ++i) {                                             //changes beyond thresholds per run
+                Match match = (Match) matches.get(i);
+                if (match.flagged == 0) {
+                    continue;
+                }
+                writer.println("<div id=\"supportingdata\">");
+                writer.println("<a name=\"run" + i + "\"></a>");
+                writer.println("<h1>" + escape(match.fileA) + " - " + escape(match.fileB) + "</h1>");
+                writer.println("<table>");
+                writer.println("<tr>");
+                writer.println("<th>Kind</th>");
+                writer.println("<th>Name</th>");
+                writer.println("<th>Baseline</th>");
+                writer.println("<th>Compared</th>");
+                writer.println("<th>Change</th>");
+                writer.println("</tr>");
+                for (int d = 0; d < match.deltas.size(); ++d) {
+                    Delta delta = (Delta) match.deltas.get(d);
+                    if (!delta.flagged) {
+                        continue;
+                    }
+                    writer.println("<tr>");
+                    writer.println("<td>" + delta.kind + "</td>");
+                    writer.println("<td>" + escape(delta.name) + "</td>");
+                    writer.println("<td>" + Format.format2d(delta.a) + "</td>");
+                    writer.println("<td>" + Format.format2d(delta.b) + "</td>");
+                    writer.println("<td>" + formatChange(delta) + "</td>");
+                    writer.println("</tr>");
+                }
+                writer.println("</table>");
+                writer.println("</div>");
+            }
+            if (!onlyA.isEmpty() || !onlyB.isEmpty()) {                                            //Unmatched
+                writer.println("<div id=\"supportingdata\">");
+                writer.println("<h1>Unmatched Files</h1>");
+                writer.println("<table>");
+                for (int i = 0; i < onlyA.size(); ++i) {
+                    writer.println("<tr><td>" + escape(a.outputDir + onlyA.get(i)) + "</td></tr>");
+                }
+                for (int i = 0; i < onlyB.size(); ++i) {
+                    writer.println("<tr><td>" + escape(b.outputDir + onlyB.get(i)) + "</td></tr>");
+                }
+                writer.println("</table>");
+                writer.println("</div>");
+            }
+            writer.println("</div>"); //container
+            writer.println("</body>");
+            writer.println("</html>");
+            writer.close();
+            if (writer.checkError()) {
+                Logger.warn("Error while writing " + file.getPath());
+                return false;
+            }
+        } catch (IOException e) {
+            Logger.warn("Unable to write comparison summary " + file.getPath() + " " + e);
+            return false;
+        }
+        return true;
+    }
+
+    private static String formatChange(Delta delta) {
+        if (Double.isNaN(delta.change)) {
+            return "new";
+        }
+        String change = (delta.change >= 0 ? "+" : "") + String.valueOf(Format.format2d(delta.change));
+        return change + (delta.share ? " points" : "%");
+    }
+
+    private static String toJSON(List values) {
+        StringBuffer buffer = new StringBuffer("[");
+        for (int i = 0; i < values.size(); ++i) {
+            buffer.append(i > 0 ? ", " : "").append(quote((String) values.get(i)));
+        }
+        return buffer.append("]").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuffer buffer = new StringBuffer("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c < 0x20) {
+                buffer.append(String.format("\\u%04x", new Integer(c)));
+            } else {
+                buffer.append(c);
+            }
+        }
+        return buffer.append('"').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
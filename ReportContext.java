@@ -0,0 +1,123 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.util.*;
+
+/**
+ * The state of a single report. Messages are held until flushLog is called so
+ * that reports generated concurrently are logged in the same order as a
+ * sequential run. Helpers which do not know the report they work for, such as
+ * the result cache, log through warnCurrent to the report of their thread.
+ */
+class ReportContext {
+
+    static final int INFORM = 0;
+    static final int WARN = 1;
+    static final int ERROR = 2;
+    static final ThreadLocal current = new ThreadLocal();
+    String filename;
+    String name;
+    String application = "";
+    String dataSet = "";
+    String simulatedSystem = "";
+    String body;
+    int cpuCount = 0;
+    int machineProfile;
+    PsinsData psinsData;
+    TaskEventTable taskTable = null;
+    BinsData binsData = null;
+    FuncData funcData = null;
+    TaskData taskData = null;
+    HashMap profileData = null;
+    LinkedHashMap trends = null;
+    ArrayList outputFiles = new ArrayList();
+    ArrayList messages = new ArrayList();
+    String signature = null;
+    boolean success = false;
+    boolean skipped = false;
+
+    ReportContext(String filename) {
+        this.filename = filename;
+        name = filename.substring(0, filename.indexOf(".psinsout"));
+    }
+
+    void inform(String message) {
+        log(INFORM, message);
+    }
+
+    void warn(String message) {
+        log(WARN, message);
+    }
+
+    void error(String message) {
+        log(ERROR, message);
+    }
+
+    /**
+     * Set the report generated on this thread
+     * @param ctx The report or null once it is done
+     */
+    static void setCurrent(ReportContext ctx) {
+        if (ctx != null) {
+            current.set(ctx);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Log a warning with the report generated on this thread, or at once if
+     * no report is being generated on it
+     */
+    static void warnCurrent(String message) {
+        ReportContext ctx = (ReportContext) current.get();
+        if (ctx != null) {
+            ctx.warn(message);
+        } else {
+            Logger.warn(message);
+        }
+    }
+
+    synchronized void flushLog() {
+        for (int i = 0; i < messages.size(); ++i) {
+            Object[] message = (Object[]) messages.get(i);
+            int level = ((Integer) message[0]).intValue();
+            if (level == ERROR) {
+                Logger.error((String) message[1]);
+            } else if (level == WARN) {
+                Logger.warn((String) message[1]);
+            } else {
+                Logger.inform((String) message[1]);
+            }
+        }
+        messages.clear();
+    }
+
+    private synchronized void log(int level, String message) {
+        messages.add(new Object[]{new Integer(level), message});
+    }
+}
@@ -0,0 +1,113 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.util.*;
+
+/**
+ * Collects the reports generated during a run and sends them as one message
+ * per set of recipients instead of one message per report. Each recipient
+ * therefore receives a single message with a summary table of all of their
+ * reports and the output files of every report attached.
+ */
+class ReportDigest {
+
+    LinkedHashMap groups = new LinkedHashMap();
+
+    static class Group {
+
+        String[] to;
+        String[] cc;
+        ArrayList rows = new ArrayList();
+        ArrayList attachments = new ArrayList();
+        ArrayList reports = new ArrayList();
+    }
+
+    /**
+     * Add a finished report to the digest
+     * @param to Recipients of the report
+     * @param cc Copied recipients of the report; may be null
+     * @param ctx The report
+     */
+    synchronized void add(String[] to, String[] cc, ReportContext ctx) {
+        String key = key(to) + "|" + key(cc);
+        Group group = (Group) groups.get(key);
+        if (group == null) {
+            group = new Group();
+            group.to = to;
+            group.cc = cc;
+            groups.put(key, group);
+        }
+        String runtime = ctx.psinsData != null ? Format.format2d(ctx.psinsData.totalPredictionTime) : "";
+        group.rows.add(ctx.name + "\t" + ctx.application + "\t" + ctx.dataSet + "\t" + String.valueOf(ctx.cpuCount)
+                + "\t" + ctx.simulatedSystem + "\t" + runtime);
+        group.attachments.addAll(ctx.outputFiles);
+        group.reports.add(ctx);
+    }
+
+    /**
+     * Queue one message per group of recipients
+     * @param queue Queue through which the messages are sent
+     * @param subject Subject of the messages
+     * @param archiveName If not null, the attachments are sent as a zip archive with this name
+     * @return int Number of messages queued
+     */
+    synchronized int send(MailQueue queue, String subject, String archiveName) {
+        Iterator iterator = groups.values().iterator();
+        while (iterator.hasNext()) {
+            Group group = (Group) iterator.next();
+            String[] attachments = new String[group.attachments.size()];
+            group.attachments.toArray(attachments);
+            queue.enqueue(group.to, group.cc, subject, getBody(group), attachments, archiveName, group.reports);
+        }
+        int count = groups.size();
+        groups.clear();
+        return count;
+    }
+
+    private static String getBody(Group group) {
+        String body = String.valueOf(group.rows.size()) + " PSiNS report(s)\n\n";
+        body += "Report\tApplication\tData Set\tCPU Count\tSimulated System\tPredicted Runtime\n";
+        body += "------\t-----------\t--------\t---------\t----------------\t-----------------\n";
+        for (int i = 0; i < group.rows.size(); ++i) {
+            body += (String) group.rows.get(i) + "\n";
+        }
+        return body;
+    }
+
+    private static String key(String[] addresses) {
+        if (addresses == null) {
+            return "";
+        }
+        String[] sorted = (String[]) addresses.clone();
+        Arrays.sort(sorted);
+        String key = "";
+        for (int i = 0; i < sorted.length; ++i) {
+            key += sorted[i].trim().toLowerCase() + ",";
+        }
+        return key;
+    }
+}
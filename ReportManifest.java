@@ -0,0 +1,149 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Record of the inputs each report in a directory was last generated from.
+ * A report's signature is its profile set followed by the size and
+ * modification time of every input file; a report whose signature matches
+ * the recorded one does not need to be generated again.
+ */
+public class ReportManifest {
+
+    static final String MANIFEST_FILE = ".psinsmanifest";
+    String dir;
+    HashMap entries = new HashMap();
+    boolean dirty = false;
+
+    /**
+     * Load the manifest of a directory
+     * @param dir Path to directory which contains the .psinsout files
+     * @return ReportManifest The manifest; empty if there is none or it cannot be read
+     */
+    public static ReportManifest load(String dir) {
+        if (!dir.endsWith("/")) {
+            dir += "/";
+        }
+        ReportManifest manifest = new ReportManifest();
+        manifest.dir = dir;
+        File file = new File(dir, MANIFEST_FILE);
+        if (!file.isFile()) {
+            return manifest;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 2);
+                    if (fields.length == 2) {
+                        manifest.entries.put(fields[0], fields[1]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            Logger.warn("Ignoring unreadable manifest " + file.getPath() + " " + e);
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Compute the signature of a report's inputs
+     * @param profiles Profile set of the report
+     * @param files Paths of the input files; missing files are recorded as such
+     * @return String The signature
+     */
+    public static String signature(String profiles, List files) {
+        StringBuffer buffer = new StringBuffer(profiles);
+        for (int i = 0; i < files.size(); ++i) {
+            File file = new File((String) files.get(i));
+            buffer.append("\t").append(file.getName());
+            buffer.append("\t").append(file.isFile() ? String.valueOf(file.length()) : "-1");
+            buffer.append("\t").append(String.valueOf(file.lastModified()));
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Check whether a report was last generated from the same inputs
+     * @param report Name of the report
+     * @param signature Signature of the report's current inputs
+     */
+    public synchronized boolean isCurrent(String report, String signature) {
+        return signature.equals(entries.get(report));
+    }
+
+    /**
+     * Record the inputs a report was generated from
+     * @param report Name of the report
+     * @param signature Signature of the report's inputs
+     */
+    public synchronized void put(String report, String signature) {
+        if (!signature.equals(entries.put(report, signature))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the manifest if any entry has changed
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File file = new File(dir, MANIFEST_FILE);
+        File temp = new File(dir, MANIFEST_FILE + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temp)));
+            try {
+                Iterator iterator = new TreeMap(entries).entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry entry = (Map.Entry) iterator.next();
+                    out.println((String) entry.getKey() + "\t" + (String) entry.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (out.checkError()) {                                                                //PrintWriter does not throw on a failed write
+                throw new IOException("write failed");
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+            dirty = false;
+        } catch (Exception e) {
+            Logger.warn("Unable to write manifest " + file.getPath() + " " + e);
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Serves the reports of a directory over HTTP on the loopback interface.
+ * The root lists the .psinsout files; a report is generated the first time
+ * one of its files is requested and its output is kept in memory. The least
+ * recently used reports are dropped once the output held exceeds a byte
+ * limit. A request for the HTML page of a report which has not been
+ * generated is answered with a chunked response that receives each section
+ * as it is written. The reporter's metrics are served as Prometheus text at
+ * /metrics.
+ */
+class ReportServer {
+
+    static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    static final Rendered STREAMED = new Rendered();
+    Reporter reporter;
+    String dir;
+    int port;
+    long maxBytes = DEFAULT_CACHE_BYTES;
+    long cachedBytes = 0;
+    LinkedHashMap cache = new LinkedHashMap(16, 0.75f, true);
+    HashMap rendering = new HashMap();
+    HttpServer server;
+    ExecutorService executor;
+
+    static class Rendered {
+
+        HashMap files = new HashMap();
+        long bytes = 0;
+    }
+
+    ReportServer(Reporter reporter, String dir, int port) {
+        this.reporter = reporter;
+        this.dir = dir;
+        this.port = port;
+    }
+
+    /**
+     * Set the limit on the size of rendered output held in memory
+     * @param bytes Maximum number of bytes; the most recent report is always kept
+     */
+    void setCacheSize(long bytes) {
+        maxBytes = bytes;
+    }
+
+    /**
+     * Start serving and block until the server is stopped
+     * @return boolean False if the server cannot be started
+     */
+    boolean run() throws Exception {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            Logger.error("Cannot listen on port " + port + " " + e);
+            return false;
+        }
+        executor = Executors.newFixedThreadPool(Math.max(reporter.threads, 2));
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (Exception e) {
+                    Logger.warn("Exception while serving " + exchange.getRequestURI() + " " + e);
+                    send(exchange, 500, "text/plain", ("Internal error: " + e).getBytes("UTF-8"));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            public void run() {
+                stop();
+            }
+        });
+        server.start();
+        Logger.inform("Serving reports for " + dir + " at http://localhost:" + server.getAddress().getPort() + "/");
+        synchronized (this) {
+            while (server != null) {
+                wait();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the server and release the threads which handle requests
+     */
+    synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            notifyAll();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws Exception {
+        if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+            send(exchange, 405, "text/plain", "Method not allowed".getBytes("UTF-8"));
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        String file = path.substring(path.lastIndexOf('/') + 1);
+        if (path.equals("/")) {
+            send(exchange, 200, "text/html; charset=UTF-8", getIndex().getBytes("UTF-8"));
+            return;
+        }
+        if (path.equals("/metrics")) {
+            send(exchange, 200, "text/plain; version=0.0.4", reporter.metrics.toPrometheus().getBytes("UTF-8"));
+            return;
+        }
+        if (path.indexOf('/', 1) != -1 || file.startsWith(".")) {
+            send(exchange, 404, "text/plain", "Not found".getBytes("UTF-8"));
+            return;
+        }
+        if (file.endsWith(".css")) {
+            File css = new File(dir, file);
+            if (css.isFile()) {
+                send(exchange, 200, "text/css", readFile(css));
+                return;
+            }
+        }
+        String name = getReportName(file);
+        Rendered rendered = name != null ? getReport(name, file.equals(name + ".html") ? exchange : null) : null;
+        if (rendered == STREAMED) {
+            return;
+        }
+        byte[] content = rendered != null ? (byte[]) rendered.files.get(file) : null;
+        if (content == null) {
+            send(exchange, 404, "text/plain", "Not found".getBytes("UTF-8"));
+            return;
+        }
+        send(exchange, 200, getContentType(file), content);
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] content) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, content.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(content);
+        out.close();
+    }
+
+    private String getIndex() {
+        List names = getReportNames();
+        StringBuffer html = new StringBuffer();
+        html.append("<html>\n<head>\n<title>PSiNS Reports</title>\n");
+        html.append("<link rel=\"stylesheet\" href=\"pmac-tools-report.css\">\n</head>\n<body>\n");
+        html.append("<h1>PSiNS Reports</h1>\n<ul>\n");
+        for (int i = 0; i < names.size(); ++i) {
+            String name = (String) names.get(i);
+            html.append("<li><a href=\"" + name + ".html\">" + name + "</a> (<a href=\"" + name + ".txt\">text</a>)</li>\n");
+        }
+        html.append("</ul>\n</body>\n</html>\n");
+        return html.toString();
+    }
+
+    private List getReportNames() {
+        List names = new ArrayList();
+        String[] files = new File(dir).list();
+        for (int i = 0; files != null && i < files.length; ++i) {
+            if (files[i].endsWith(".psinsout")) {
+                names.add(files[i].substring(0, files[i].indexOf(".psinsout")));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private String getReportName(String file) {
+        String name = null;
+        List names = getReportNames();
+        for (int i = 0; i < names.size(); ++i) {
+            String candidate = (String) names.get(i);
+            if (file.startsWith(candidate) && (name == null || candidate.length() > name.length())) {     //longest report name which prefixes the file
+                name = candidate;
+            }
+        }
+        return name;
+    }
+
+    private Rendered getReport(String name, HttpExchange exchange) throws Exception {
+        FutureTask task;
+        boolean owner = false;
+        final OutputStream[] mirror = new OutputStream[1];
+        synchronized (this) {
+            Rendered rendered = (Rendered) cache.get(name);
+            if (rendered != null) {
+                return rendered;
+            }
+            task = (FutureTask) rendering.get(name);
+            if (task == null) {
+                final String filename = name + ".psinsout";
+                task = new FutureTask(new Callable() {
+
+                    public Object call() throws Exception {
+                        return render(filename, mirror[0]);
+                    }
+                });
+                rendering.put(name, task);
+                owner = true;
+            }
+        }
+        if (owner && exchange != null && !exchange.getRequestMethod().equals("HEAD")) {             //stream the page while it is generated
+            exchange.getResponseHeaders().set("Content-Type", getContentType(name + ".html"));
+            exchange.sendResponseHeaders(200, 0);
+            mirror[0] = exchange.getResponseBody();
+        }
+        if (owner) {                                                                                 //concurrent requests for the same report wait for one render
+            task.run();
+        }
+        try {
+            Rendered rendered = (Rendered) task.get();
+            if (owner && rendered != null) {
+                put(name, rendered);
+            }
+            return mirror[0] != null ? STREAMED : rendered;
+        } catch (ExecutionException e) {
+            if (mirror[0] != null) {
+                Logger.warn("Exception while rendering " + name + " " + e.getCause());
+                return STREAMED;
+            }
+            throw new Exception("Exception while rendering " + name + " " + e.getCause());
+        } finally {
+            if (owner) {
+                synchronized (this) {
+                    rendering.remove(name);
+                }
+            }
+        }
+    }
+
+    private Rendered render(String filename, OutputStream html) throws Exception {
+        long start = reporter.metrics.start();
+        ReportContext ctx = reporter.render(filename, html);
+        reporter.metrics.stop("serve.render", start);
+        Rendered rendered = new Rendered();
+        for (int i = 0; i < ctx.outputFiles.size(); ++i) {
+            File file = new File((String) ctx.outputFiles.get(i));
+            byte[] content = readFile(file);
+            rendered.files.put(file.getName(), content);
+            rendered.bytes += content.length;
+            if (!reporter.saveOutput) {
+                file.delete();
+            }
+        }
+        return ctx.success ? rendered : null;
+    }
+
+    private synchronized void put(String name, Rendered rendered) {
+        cache.put(name, rendered);
+        cachedBytes += rendered.bytes;
+        Iterator iterator = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && cache.size() > 1 && iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            if (entry.getKey().equals(name)) {
+                continue;
+            }
+            cachedBytes -= ((Rendered) entry.getValue()).bytes;
+            iterator.remove();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    private static String getContentType(String file) {
+        if (file.endsWith(".html")) {
+            return "text/html; charset=UTF-8";
+        } else if (file.endsWith(".txt")) {
+            return "text/plain; charset=UTF-8";
+        } else if (file.endsWith(".png")) {
+            return "image/png";
+        } else if (file.endsWith(".svg")) {
+            return "image/svg+xml";
+        }
+        return "application/octet-stream";
+    }
+}
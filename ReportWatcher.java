@@ -0,0 +1,211 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Watches a results directory and hands newly written .psinsout files to a
+ * Reporter in batches. A file is reported once its size and modification
+ * time have not changed for SETTLE_MS and the matching stats files are in
+ * place, or once STATS_WAIT_MS has passed without them. Files present when
+ * the watch starts are not reported until they are written again. The
+ * Reporter's manifest decides whether a file that was written again needs a
+ * new report, so a file rewritten in place with new results is reported again.
+ * A file whose header cannot be read or whose report throws is logged and
+ * dropped until it is written again; the watch goes on.
+ */
+class ReportWatcher {
+
+    static final long POLL_MS = 1000;
+    static final long SETTLE_MS = 5000;
+    static final long STATS_WAIT_MS = 120000;
+    Reporter reporter;
+    Path dir;
+    Path statsDir;
+    WatchService watcher;
+    WatchKey statsKey = null;
+    HashMap pending = new HashMap();
+    long lastStatsChange = 0;
+
+    static class PendingFile {
+
+        long size = -1;
+        long lastModified = -1;
+        long stableSince;
+        long settledAt = 0;
+    }
+
+    ReportWatcher(Reporter reporter, String dir) {
+        this.reporter = reporter;
+        this.dir = Paths.get(dir);
+        statsDir = this.dir.resolve("stats");
+    }
+
+    /**
+     * Watch the directory until the thread is interrupted
+     * @return boolean False if the directory cannot be watched
+     */
+    boolean run() throws Exception {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            registerStats();
+        } catch (IOException e) {
+            Logger.error("Cannot watch directory " + dir + " " + e);
+            return false;
+        }
+        Logger.inform("Watching " + dir + " for new .psinsout files");
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.poll(POLL_MS, java.util.concurrent.TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watcher.poll();
+                }
+                List ready = getReadyFiles();
+                if (!ready.isEmpty()) {
+                    Logger.inform("Reporting on " + ready.size() + " new file(s)");
+                    try {
+                        if (!reporter.run(ready)) {
+                            Logger.warn("Reporting failed for at least one of " + ready);
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        Logger.warn("Exception while reporting on " + ready + " " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watcher.close();
+        }
+        return true;
+    }
+
+    private void registerStats() throws IOException {
+        if (statsKey == null && Files.isDirectory(statsDir)) {
+            statsKey = statsDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator it = key.pollEvents().iterator();
+        while (it.hasNext()) {
+            WatchEvent event = (WatchEvent) it.next();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(now);
+                continue;
+            }
+            String name = event.context().toString();
+            if (key == statsKey) {
+                lastStatsChange = now;
+            } else if (name.equals("stats")) {
+                registerStats();
+                lastStatsChange = now;
+            } else if (name.endsWith(".psinsout") && !pending.containsKey(name)) {
+                PendingFile file = new PendingFile();
+                file.stableSince = now;
+                pending.put(name, file);
+            }
+        }
+        if (!key.reset() && key == statsKey) {
+            statsKey = null;
+        }
+    }
+
+    private void rescan(long now) {
+        String[] names = dir.toFile().list();
+        for (int i = 0; names != null && i < names.length; ++i) {
+            if (names[i].endsWith(".psinsout") && !pending.containsKey(names[i])) {
+                PendingFile file = new PendingFile();
+                file.stableSince = now;
+                pending.put(names[i], file);
+            }
+        }
+        lastStatsChange = now;
+    }
+
+    private List getReadyFiles() {
+        long now = System.currentTimeMillis();
+        List ready = new ArrayList();
+        boolean statsSettled = now - lastStatsChange >= SETTLE_MS;
+        boolean indexReset = false;
+        Iterator it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            String name = (String) entry.getKey();
+            PendingFile file = (PendingFile) entry.getValue();
+            File path = dir.resolve(name).toFile();
+            if (!path.exists()) {
+                it.remove();
+                continue;
+            }
+            long size = path.length();
+            long lastModified = path.lastModified();
+            if (size != file.size || lastModified != file.lastModified) {                           //still being written
+                file.size = size;
+                file.lastModified = lastModified;
+                file.stableSince = now;
+                file.settledAt = 0;
+                continue;
+            }
+            if (now - file.stableSince < SETTLE_MS || !statsSettled) {
+                continue;
+            }
+            if (file.settledAt == 0) {
+                file.settledAt = now;
+            }
+            if (!indexReset) {
+                reporter.resetStatsIndex();
+                indexReset = true;
+            }
+            boolean hasStats;
+            try {
+                hasStats = reporter.hasStats(name);
+            } catch (Exception e) {
+                Logger.warn("Skipping " + name + " until it is written again; unable to read its header " + e);
+                it.remove();
+                continue;
+            }
+            if (!hasStats) {
+                if (now - file.settledAt < STATS_WAIT_MS) {
+                    continue;
+                }
+                Logger.warn("Stats files for " + name + " did not appear within " + (STATS_WAIT_MS / 1000) + "s");
+            }
+            ready.add(name);
+            it.remove();
+        }
+        Collections.sort(ready);
+        return ready;
+    }
+}
@@ -0,0 +1,139 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The text and HTML files of a report while it is being written. Sections
+ * are written as soon as their data is available and the data can then be
+ * released. If a mirror stream is given the HTML is copied to it and
+ * flushed at the end of every section, so that a client sees the start of
+ * the page before the rest of the report has been generated.
+ */
+class ReportWriter {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    PrintWriter text;
+    PrintWriter html;
+    boolean flushSections;
+    HashSet sections = new HashSet();
+
+    /**
+     * Constructor
+     * @param textFile The text file
+     * @param htmlFile The HTML file
+     * @param mirror Stream to which the HTML is also written or null; it is not closed
+     */
+    ReportWriter(File textFile, File htmlFile, OutputStream mirror) throws IOException {
+        text = new PrintWriter(new BufferedWriter(new FileWriter(textFile), BUFFER_SIZE));
+        OutputStream out = new FileOutputStream(htmlFile);
+        if (mirror != null) {
+            out = new TeeOutputStream(out, mirror);
+        }
+        html = new PrintWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+        flushSections = mirror != null;
+    }
+
+    /**
+     * Mark the end of a section
+     * @param name Name of the section, used to build the links to the sections written
+     */
+    void endSection(String name) {
+        sections.add(name);
+        if (flushSections) {
+            html.flush();
+        }
+    }
+
+    /**
+     * @return boolean True if the section has been written
+     */
+    boolean hasSection(String name) {
+        return sections.contains(name);
+    }
+
+    /**
+     * Close both files
+     * @return boolean False if an error occurred while writing either file
+     */
+    boolean close() {
+        text.close();
+        html.close();
+        return !text.checkError() && !html.checkError();
+    }
+
+    /**
+     * Copies a stream to a mirror. The mirror is dropped on its first error
+     * so that a client going away does not stop the report being written.
+     */
+    static class TeeOutputStream extends FilterOutputStream {
+
+        OutputStream mirror;
+
+        TeeOutputStream(OutputStream out, OutputStream mirror) {
+            super(out);
+            this.mirror = mirror;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (mirror != null) {
+                try {
+                    mirror.write(b);
+                } catch (IOException e) {
+                    mirror = null;
+                }
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (mirror != null) {
+                try {
+                    mirror.write(b, off, len);
+                } catch (IOException e) {
+                    mirror = null;
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+            if (mirror != null) {
+                try {
+                    mirror.flush();
+                } catch (IOException e) {
+                    mirror = null;
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            flush();
+            out.close();
+        }
+    }
+}
@@ -27,13 +27,13 @@ import PSaPP.util.*;
 import PSaPP.dbase.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.text.NumberFormat;
 import java.awt.Color;
 
 import org.jfree.chart.*;
 import org.jfree.chart.axis.*;
-import org.jfree.chart.entity.*;
 import org.jfree.chart.labels.*;
 import org.jfree.chart.plot.*;
 import org.jfree.chart.renderer.category.*;
@@ -58,27 +58,52 @@ public class Reporter {
             + " and in L3 cache if it has hit rates >= 98.0%";
     static final String imgSrcPath = "";  // not currently set
     static final String subject = "PSiNS Data";
+    static final String DIGEST_ARCHIVE = "psins_reports.zip";
     static final java.awt.Paint bgColor = new java.awt.Color(34, 34, 34);
     static final int NUM_FUNC = 6;
+    static final int ETASK_BIN_THRESHOLD = 1024;  // tasks above which the bar chart is binned
+    static final int ETASK_MAX_BINS = 256;
+    static final int CHART_DISPLAY_WIDTH = 514;
+    static final int TREND_RUNS = 10;
+    static final int IMBALANCE_EVENTS = 10;
+    static final long MTIME_RESOLUTION = 2000;  // coarsest directory mtime granularity, as on FAT
     String[] recipients;
     String[] cc;
     String outputDir;
     String imagesDir;
-    String body;
-    String simulatedSystem = "";
     String application = "";
     String dataSet = "";
-    int machineProfile;
     int cpuCount = 0;
+    int threads = 1;
     boolean saveOutput = false;
-    ArrayList outputFiles;
+    boolean useCache = true;
+    boolean readOnly = false;
+    boolean digestMode = false;
+    boolean zipAttachments = false;
+    boolean force = false;
+    String metricsFile = null;
+    int metricsPort = 0;
+    boolean inlineCharts = false;
+    ChartWriter chartWriter = new PngChartWriter();
+    EventColors eventColors = EventColors.getDefault();
+    ArrayList outputFiles = new ArrayList();
     File images;
     Database database;
-    PsinsData psinsData;
-    BinsData binsData = null;
-    FuncData funcData = null;
-    TaskData taskData = null;
-    HashMap profileData = null;
+    CachedDatabase cachedDatabase;
+    MailQueue mailQueue = null;
+    ReportDigest digest = null;
+    ReportManifest manifest = null;
+    TrendStore trendStore = null;
+    String trendRun = null;
+    IdentityHashMap recordedTrends = null;
+    Metrics metrics = new Metrics();
+    int dbHits = 0;
+    int dbMisses = 0;
+    PsinsIndex psinsIndex = null;
+    StatsIndex statsIndex = null;
+    boolean statsIndexBuilt = false;
+    long statsDirModified = 0;
+    long statsIndexBuildTime = 0;
 
     /**
      * Constructor
@@ -91,11 +116,28 @@ public class Reporter {
         dataSet = testCase.getDataset();
         cpuCount = testCase.getCpu();
         database = db;
+        cachedDatabase = new CachedDatabase(db);
+        cachedDatabase.setMetrics(metrics);
         recipients = getEmailsFromTestCase(testCase);
         cc = ConfigSettings.getSettings(ConfigKey.Settings.EMAIL_CC);
         init(dir);
     }
 
+    /**
+     * Constructor for reporting without a database connection or email, as
+     * in the benchmarks. Every machine profile reported on must be primed.
+     * @param dir Path to directory which contains the .psinsout files
+     * @param db Lookups for the machine profiles
+     */
+    Reporter(String dir, CachedDatabase db) {
+        recipients = null;
+        cc = null;
+        database = db.getDatabase();
+        cachedDatabase = db;
+        cachedDatabase.setMetrics(metrics);
+        init(dir);
+    }
+
     /**
      * Set whether or not output files are saved
      * @param save If true, output files are never deleted
@@ -103,6 +145,122 @@ public class Reporter {
     public void setSaveOutput(boolean save) {
         saveOutput = save;
     }
+
+    /**
+     * Set whether or not parsed results are cached next to the files they are read from
+     * @param cache If true, cached results are used when they are up to date
+     */
+    public void setUseCache(boolean cache) {
+        useCache = cache;
+    }
+
+    /**
+     * Set whether the directory is left as it is. Up to date cached results and
+     * the .psinsout index are still read, but neither is written.
+     * @param readOnly If true, no cache or index files are written
+     */
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Set whether reports are emailed one per message or as a digest
+     * @param digest If true, each recipient receives one message for all reports in a run
+     */
+    public void setDigest(boolean digest) {
+        digestMode = digest;
+    }
+
+    /**
+     * Set whether the output files of a report are attached separately or as one zip archive
+     * @param zip If true, all output files are sent in a single zip archive
+     */
+    public void setZipAttachments(boolean zip) {
+        zipAttachments = zip;
+    }
+
+    /**
+     * Set whether reports are generated even if their inputs have not changed
+     * @param force If true, the manifest of previous runs is ignored
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Set the format of the charts in the HTML report
+     * @param format png or svg for image files, or inline for svg embedded in the HTML file
+     * @return boolean False if the format is not known
+     */
+    public boolean setChartFormat(String format) {
+        if (format.equals("png")) {
+            chartWriter = new PngChartWriter();
+            inlineCharts = false;
+        } else if (format.equals("svg")) {
+            chartWriter = new SvgChartWriter();
+            inlineCharts = false;
+        } else if (format.equals("inline")) {
+            chartWriter = new SvgChartWriter();
+            inlineCharts = true;
+        } else {
+            Logger.warn("Unknown chart format " + format);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add to or override the colors of the events in the charts
+     * @param file Path of the file of event colors
+     * @return boolean False if the file cannot be read
+     */
+    public boolean setEventColors(String file) {
+        EventColors colors = EventColors.load(file);
+        if (colors == null) {
+            return false;
+        }
+        eventColors = colors;
+        return true;
+    }
+
+    /**
+     * Record the predicted runtimes of each run and compare them with previous runs
+     * @param dir Path of the directory of the trend store
+     * @return boolean False if the store cannot be opened
+     */
+    public boolean setTrendStore(String dir) {
+        try {
+            trendStore = TrendStore.open(dir);
+        } catch (IOException e) {
+            Logger.warn("Cannot open trend store " + dir + " " + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set the file to which the metrics of each run are written
+     * @param file Path of the file; CSV if it ends with .csv, JSON otherwise; null for no file
+     */
+    public void setMetricsFile(String file) {
+        metricsFile = file;
+    }
+
+    /**
+     * Set the port on which metrics are served as Prometheus text in watch mode
+     * @param port Port on localhost; 0 for none
+     */
+    public void setMetricsPort(int port) {
+        metricsPort = port;
+    }
+
+    /**
+     * Set the number of reports which are generated concurrently
+     * @param count Number of worker threads; 1 generates reports sequentially
+     */
+    public void setThreads(int count) {
+        threads = count > 0 ? count : 1;
+    }
     
     /**
      * Process all .psinsout files
@@ -113,6 +271,7 @@ public class Reporter {
             Logger.error("Database is null");
             return false;
         }
+        statsIndexBuilt = false;
         try {
             File folder = new File(outputDir);
             File[] files = folder.listFiles();
@@ -120,40 +279,24 @@ public class Reporter {
                 Logger.error("Directory " + outputDir + " does not exist");
                 return false;
             }
-            boolean fileFound = false;
             if (files.length == 0) {
                 Logger.warn("No files found in directory " + outputDir);
             }
+            List reports = new ArrayList();
             for (int i = 0; i < files.length; ++i) {
                 if (files[i].isFile()) {
                     String filename = files[i].getName();
                     if (filename.endsWith(".psinsout")) {
-                        fileFound = true;
-                        if (!processPsinsFile(filename, true)) {
-                            return false;
-                        }
-                        processStats();
-                        outputFiles = new ArrayList();
-                        if (!createTextFile(filename.substring(0, filename.indexOf(".psinsout")))) {
-                            return false;
-                        }
-                        if (!createHTMLFile(filename.substring(0, filename.indexOf(".psinsout")))) {
-                            return false;
-                        }
-                        if (recipients != null) {
-                            setEmailBody();
-                            String[] attachments = new String[outputFiles.size()];
-                            outputFiles.toArray(attachments);
-                            if (!Util.sendEmail(recipients, cc, subject, body, attachments)) {
-                                return false;
-                            }
-                        }
+                        reports.add(new ReportContext(filename));
                     }
                 }
             }
-            if (!fileFound) {
+            if (reports.isEmpty()) {
                 Logger.warn("No .psinsout file found in directory " + outputDir);
             }
+            if (!runReports(reports)) {
+                return false;
+            }
         } catch (Exception e) {
             throw e;
         }
@@ -165,7 +308,8 @@ public class Reporter {
 
     /**
      * Process only the .psinsout files that contain the specified profiles and
-     * only generate a report for the profile at index zero
+     * generate a report for each profile. Every .psinsout file is parsed once
+     * and the results are shared by all of the reports.
      * @param profiles Machine profiles part of the same prediction run
      * @return boolean True if all files successfully processed
      */
@@ -173,17 +317,39 @@ public class Reporter {
         if (profiles.length == 0) {
             Logger.error("At least 1 machine profile is required for reporting");
         }
-        if (profiles.length == 1) {
-            return processProfiles(profiles);
+        if (database == null) {
+            Logger.error("Database is null");
+            return false;
+        }
+        psinsIndex = PsinsIndex.load(outputDir);
+        statsIndexBuilt = false;
+        if (psinsIndex == null) {
+            Logger.error("Directory " + outputDir + " does not exist");
+            return false;
+        }
+        if (psinsIndex.getFiles().isEmpty()) {
+            Logger.error("No .psinsout files found in directory " + outputDir);
+            return false;
         }
+        cachedDatabase.prefetch(profiles);
+        Map results = parseProfiles(profiles);
+        List reports = new ArrayList();
+        boolean complete = true;
         for (int i = 0; i < profiles.length; ++i) {
             int[] copy = Arrays.copyOf(profiles, profiles.length);
             int head = copy[0];
             copy[0] = copy[i];
             copy[i] = head;
-            if (!processProfiles(copy)) {
-                return false;
+            ReportContext ctx = createProfileReport(copy, results);
+            if (ctx == null) {
+                complete = false;
+                break;
             }
+            reports.add(ctx);
+        }
+        boolean success = runReports(reports) && complete;
+        if (profiles.length == 1 || !success) {
+            return success;
         }
         if (!saveOutput) {
             deleteOutputFiles();
@@ -191,106 +357,520 @@ public class Reporter {
         return true;
     }
 
+    /**
+     * Watch the directory and generate a report for each .psinsout file written
+     * to it after the watch starts. The database connection, caches and chart
+     * renderer stay open between batches.
+     * @return boolean False if the directory cannot be watched
+     */
+    public boolean watch() throws Exception {
+        if (database == null) {
+            Logger.error("Database is null");
+            return false;
+        }
+        com.sun.net.httpserver.HttpServer metricsServer = null;
+        if (metricsPort != 0) {
+            try {
+                metricsServer = metrics.serve(metricsPort);
+            } catch (IOException e) {
+                Logger.warn("Cannot serve metrics on port " + metricsPort + " " + e);
+            }
+        }
+        try {
+            return new ReportWatcher(this, outputDir).run();
+        } finally {
+            if (metricsServer != null) {
+                metricsServer.stop(0);
+            }
+        }
+    }
+
+    /**
+     * Serve the reports of the directory over HTTP on localhost, generating
+     * each report when it is first requested
+     * @param port Port to listen on
+     * @return boolean False if the server cannot be started
+     */
+    public boolean serve(int port) throws Exception {
+        if (database == null) {
+            Logger.error("Database is null");
+            return false;
+        }
+        return new ReportServer(this, outputDir, port).run();
+    }
+
+    /**
+     * Compare the results in the directory with those of another directory
+     * and write the diff and its HTML summary to the other directory
+     * @param dir Path to directory which contains the .psinsout files compared with this one
+     * @param threshold Percent change of a time beyond which it is reported
+     * @param shareThreshold Change in percentage points of a share of time beyond which it is reported
+     * @return boolean False if a directory cannot be read or the output cannot be written
+     */
+    public boolean compare(String dir, double threshold, double shareThreshold) throws Exception {
+        if (database == null) {
+            Logger.error("Database is null");
+            return false;
+        }
+        Reporter other = new Reporter(dir, cachedDatabase);
+        other.setUseCache(useCache);
+        setReadOnly(true);
+        other.setReadOnly(true);
+        other.metrics = metrics;
+        cachedDatabase.setMetrics(metrics);
+        ReportComparison comparison = new ReportComparison(this, other, threads);
+        comparison.setThresholds(threshold, shareThreshold);
+        long start = metrics.start();
+        boolean success = comparison.run();
+        metrics.stop("compare", start);
+        reportMetrics(new ArrayList());
+        return success;
+    }
+
+    /**
+     * Index the .psinsout files of the directory
+     * @return List Names of the files or null if the directory does not exist
+     */
+    List getPsinsFiles() throws Exception {
+        psinsIndex = PsinsIndex.load(outputDir, !readOnly);
+        statsIndexBuilt = false;
+        return psinsIndex != null ? psinsIndex.getFiles() : null;
+    }
+
+    /**
+     * Parse a .psinsout file and its stats files without writing a report
+     * @param filename Name of the file relative to the directory
+     * @return ReportContext The parsed data, with the stats that were not found left null; null if the file cannot be parsed
+     */
+    ReportContext parseRun(String filename) throws Exception {
+        PsinsHeader header = getHeader(filename);
+        ReportContext ctx = new ReportContext(filename);
+        startReport(ctx, header);
+        PsinsResult result = parsePsinsFile(filename, header);
+        if (result == null) {
+            Logger.warn("Unable to parse " + outputDir + filename);
+            return null;
+        }
+        ctx.psinsData = result.data;
+        StatsIndex index = getStatsIndex();
+        if (index == null) {
+            return ctx;
+        }
+        int cacheSysId = cachedDatabase.getCacheSysId(ctx.machineProfile);
+        String baseResource = Format.BR(cachedDatabase.getBaseResource(ctx.machineProfile));
+        String memoryPIdx = Format.MP(cachedDatabase.getMemoryPIdx(ctx.machineProfile));
+        String file = index.getFile(cacheSysId, baseResource, memoryPIdx, "func");
+        if (file != null) {
+            ctx.funcData = parseFunc(outputDir + "stats/" + file);
+        }
+        file = index.getFile(cacheSysId, baseResource, memoryPIdx, "bins");
+        if (file != null) {
+            ctx.binsData = parseBins(outputDir + "stats/" + file);
+        }
+        file = index.getFile(cacheSysId, baseResource, memoryPIdx, "task");
+        if (file != null) {
+            ctx.taskData = parseTask(outputDir + "stats/" + file);
+        }
+        ctx.success = true;
+        return ctx;
+    }
+
+    /**
+     * Generate the report for a single .psinsout file without sending it
+     * @param filename Name of the file relative to the directory
+     * @param html Stream to which the HTML is copied section by section as it is written or null
+     * @return ReportContext The report; its output files are left on disk
+     */
+    ReportContext render(String filename, OutputStream html) throws Exception {
+        refreshStatsIndex();
+        ReportContext ctx = new ReportContext(filename);
+        try {
+            generateReport(ctx, html);
+        } finally {
+            ctx.flushLog();
+        }
+        return ctx;
+    }
+
+    /**
+     * Process a batch of .psinsout files
+     * @param filenames Names of the files relative to the directory
+     * @return boolean True if all files successfully processed
+     */
+    boolean run(List filenames) throws Exception {
+        statsIndexBuilt = false;
+        List reports = new ArrayList();
+        for (int i = 0; i < filenames.size(); ++i) {
+            reports.add(new ReportContext((String) filenames.get(i)));
+        }
+        boolean success = runReports(reports);
+        if (!saveOutput) {
+            deleteOutputFiles();
+        }
+        return success;
+    }
+
+    /**
+     * Discard the stats index so that it is rebuilt on next use
+     */
+    synchronized void resetStatsIndex() {
+        statsIndexBuilt = false;
+    }
+
+    /**
+     * Discard the stats index if files have been added to or removed from the
+     * stats directory since it was built, i.e. if the directory's mtime has
+     * changed. An index built within MTIME_RESOLUTION of that mtime may have
+     * missed a change which left the mtime as it was, so it is also discarded.
+     */
+    synchronized void refreshStatsIndex() {
+        long modified = new File(outputDir + "stats/").lastModified();
+        if (modified != statsDirModified || statsIndexBuildTime - statsDirModified < MTIME_RESOLUTION) {
+            statsIndexBuilt = false;
+        }
+    }
+
+    /**
+     * Check whether the .bins, .func and .task files of a .psinsout file are in the stats directory
+     * @param filename Name of the .psinsout file relative to the directory
+     */
+    boolean hasStats(String filename) throws Exception {
+        return getStatsFiles(getHeader(filename).machineProfile).size() == StatsIndex.KINDS.length;
+    }
+
+    private List getStatsFiles(int profile) {
+        List found = new ArrayList();
+        StatsIndex index = getStatsIndex();
+        if (index == null) {
+            return found;
+        }
+        int cacheSysId = cachedDatabase.getCacheSysId(profile);
+        String baseResource = Format.BR(cachedDatabase.getBaseResource(profile));
+        String memoryPIdx = Format.MP(cachedDatabase.getMemoryPIdx(profile));
+        for (int i = 0; i < StatsIndex.KINDS.length; ++i) {
+            String filename = index.getFile(cacheSysId, baseResource, memoryPIdx, StatsIndex.KINDS[i]);
+            if (filename != null) {
+                found.add(outputDir + "stats/" + filename);
+            }
+        }
+        return found;
+    }
+
     private void deleteOutputFiles() {
         for (int i = 0; i < outputFiles.size(); ++i) {
             (new File((String) outputFiles.get(i))).delete();
         }
+        outputFiles.clear();
         Util.deleteDir(images);
     }
 
-    private boolean processProfiles(int[] profiles) throws Exception {
-        if (database == null) {
-            Logger.error("Database is null");
-            return false;
+    private Map parseProfiles(int[] profiles) throws Exception {
+        Map results = new HashMap();
+        for (int i = 0; i < profiles.length; ++i) {
+            Integer profile = new Integer(profiles[i]);
+            if (results.containsKey(profile)) {
+                continue;
+            }
+            String filename = psinsIndex.getFile(profiles[i]);
+            PsinsResult result = filename != null ? parsePsinsFile(filename, getHeader(filename)) : null;
+            if (result == null) {
+                Logger.warn("Unable to process profile " + String.valueOf(profiles[i]));
+                continue;
+            }
+            results.put(profile, result);
         }
+        return Collections.unmodifiableMap(results);
+    }
+
+    private ReportContext createProfileReport(int[] profiles, Map results) {
+        String file = psinsIndex.getFile(profiles[0]);
+        PsinsResult result = (PsinsResult) results.get(new Integer(profiles[0]));
+        if (result == null) {
+            return null;
+        }
+        ReportContext ctx = new ReportContext(file);
+        ctx.psinsData = result.data;
+        ctx.taskTable = result.tasks;
+        ctx.profileData = new LinkedHashMap();
+        for (int i = 0; i < profiles.length; ++i) {
+            Integer profile = new Integer(profiles[i]);
+            if (results.containsKey(profile)) {
+                ctx.profileData.put(profile, ((PsinsResult) results.get(profile)).data);
+            }
+        }
+        return ctx;
+    }
+
+    private boolean runReports(List reports) throws Exception {
+        long start = metrics.start();
+        if (recipients != null) {
+            mailQueue = new MailQueue(metrics);
+            digest = digestMode ? new ReportDigest() : null;
+        }
+        manifest = ReportManifest.load(outputDir);
+        trendRun = TrendStore.getRunLabel(System.currentTimeMillis());
+        recordedTrends = new IdentityHashMap();
+        boolean success = false;
         try {
-            File folder = new File(outputDir);
-            File[] files = folder.listFiles();
-            if (files == null) {
-                Logger.error("Directory " + outputDir + " does not exist");
-                return false;
+            success = generateReports(reports);
+            if (digest != null) {
+                digest.send(mailQueue, subject, zipAttachments ? DIGEST_ARCHIVE : null);
             }
-            if (files.length == 0) {
-                Logger.error("No files found in directory " + outputDir);
-                return false;
+        } finally {
+            trendRun = null;
+            recordedTrends = null;
+            if (trendStore != null) {
+                trendStore.save();
             }
-            profileData = new LinkedHashMap();
-            String[] psinsFiles = new String[profiles.length];
-            for (int i = 0; i < profiles.length; ++i) {
-                for (int j = 0; j < files.length; ++j) {
-                    if (files[j].isFile()) {
-                        String filename = files[j].getName();
-                        if (filename.endsWith(".psinsout") && profiles[i] == getMachineProfile(filename)) {
-                            psinsFiles[i] = filename;
-                            break;
-                        }
+            digest = null;
+            Set sent = null;
+            if (mailQueue != null) {
+                int failed = mailQueue.close();
+                sent = mailQueue.getSentTags();
+                mailQueue = null;
+                if (failed > 0) {
+                    Logger.error(String.valueOf(failed) + " report email(s) could not be sent");
+                    success = false;
+                }
+            }
+            updateManifest(reports, sent);
+            metrics.stop("run", start);
+            reportMetrics(reports);
+        }
+        return success;
+    }
+
+    // a report is recorded only once it has been delivered, so one whose email failed is generated again next run
+    private void updateManifest(List reports, Set sent) {
+        for (int i = 0; i < reports.size(); ++i) {
+            ReportContext ctx = (ReportContext) reports.get(i);
+            if (ctx.success && !ctx.skipped && (sent == null || sent.contains(ctx))) {
+                manifest.put(ctx.filename, ctx.signature);
+            }
+        }
+        manifest.save();
+    }
+
+    private void reportMetrics(List reports) {
+        for (int i = 0; i < reports.size(); ++i) {
+            ReportContext ctx = (ReportContext) reports.get(i);
+            metrics.count(ctx.skipped ? "reports.skipped" : ctx.success ? "reports.generated" : "reports.failed", 1);
+        }
+        metrics.count("db.hits", cachedDatabase.getHits() - dbHits);
+        metrics.count("db.misses", cachedDatabase.getMisses() - dbMisses);
+        dbHits = cachedDatabase.getHits();
+        dbMisses = cachedDatabase.getMisses();
+        Logger.inform(metrics.getSummary());
+        if (metricsFile != null) {
+            metrics.write(metricsFile);
+        }
+    }
+
+    private boolean generateReports(List reports) throws Exception {
+        boolean success = true;
+        if (threads <= 1 || reports.size() <= 1) {
+            for (int i = 0; i < reports.size(); ++i) {                                             //a failed report does not stop the others, as on the pool
+                ReportContext ctx = (ReportContext) reports.get(i);
+                try {
+                    generateReport(ctx);
+                } catch (Exception e) {
+                    ctx.flushLog();
+                    Logger.error("Exception while processing report for " + ctx.filename + " " + e);
+                    success = false;
+                    continue;
+                }
+                ctx.flushLog();
+                try {
+                    if (!finishReport(ctx)) {
+                        success = false;
                     }
+                } catch (Exception e) {
+                    Logger.error("Exception while finishing report for " + ctx.filename + " " + e);
+                    success = false;
                 }
             }
-            for (int i = 0; i < psinsFiles.length; ++i) {
-                if (psinsFiles[i] == null) {
-                    if (i == 0) {
-                        return false;
-                    } else {
-                        Logger.warn("Unable to process profile " + String.valueOf(profiles[i]));
-                        continue;
+            return success;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, reports.size()));
+        try {
+            List futures = new ArrayList();
+            for (int i = 0; i < reports.size(); ++i) {
+                final ReportContext ctx = (ReportContext) reports.get(i);
+                futures.add(executor.submit(new Callable() {
+
+                    public Object call() throws Exception {
+                        generateReport(ctx);
+                        return ctx;
+                    }
+                }));
+            }
+            for (int i = 0; i < reports.size(); ++i) {                                             //results are handled in submission order
+                ReportContext ctx = (ReportContext) reports.get(i);
+                try {
+                    ((Future) futures.get(i)).get();
+                    ctx.flushLog();
+                    if (!finishReport(ctx)) {
+                        success = false;
                     }
+                } catch (ExecutionException e) {
+                    ctx.flushLog();
+                    Logger.error("Exception while processing report for " + ctx.filename + " " + e.getCause());
+                    success = false;
+                } catch (Exception e) {
+                    Logger.error("Exception while finishing report for " + ctx.filename + " " + e);
+                    success = false;
                 }
-                if (!processPsinsFile(psinsFiles[i], false)) {
-                    Logger.warn("Unable to process profile " + String.valueOf(profiles[i]));
-                    continue;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return success;
+    }
+
+    private void generateReport(ReportContext ctx) throws Exception {
+        generateReport(ctx, null);
+    }
+
+    private void generateReport(ReportContext ctx, OutputStream mirror) throws Exception {
+        ReportContext.setCurrent(ctx);
+        try {
+            generateCurrentReport(ctx, mirror);
+        } finally {
+            ReportContext.setCurrent(null);
+        }
+    }
+
+    private void generateCurrentReport(ReportContext ctx, OutputStream mirror) throws Exception {
+        PsinsHeader header = getHeader(ctx.filename);
+        startReport(ctx, header);
+        ctx.signature = getSignature(ctx);
+        if (!force && manifest != null && manifest.isCurrent(ctx.filename, ctx.signature)
+                && (!saveOutput || new File(outputDir, ctx.name + ".html").isFile())) {
+            ctx.inform("Report for " + ctx.filename + " is up to date");
+            ctx.skipped = true;
+            ctx.success = true;
+            return;
+        }
+        if (ctx.psinsData == null) {
+            PsinsResult result = parsePsinsFile(ctx.filename, header);
+            if (result == null) {
+                return;
+            }
+            ctx.psinsData = result.data;
+            ctx.taskTable = result.tasks;
+        }
+        recordTrends(ctx);
+        if (!writeReport(ctx, mirror)) {
+            return;
+        }
+        ctx.success = true;
+    }
+
+    // runs outside of a batch, such as those of --serve, are compared but not recorded
+    private void recordTrends(ReportContext ctx) {
+        if (trendStore == null) {
+            return;
+        }
+        Map data = ctx.profileData;
+        if (data == null) {
+            data = new HashMap();
+            data.put(new Integer(ctx.machineProfile), ctx.psinsData);
+        }
+        String run = trendRun;
+        Map recorded = recordedTrends;
+        ctx.trends = new LinkedHashMap();
+        Iterator iterator = data.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            int profile = ((Integer) entry.getKey()).intValue();
+            PsinsData psinsData = (PsinsData) entry.getValue();
+            String key = TrendStore.getKey(ctx.application, ctx.dataSet, ctx.cpuCount, profile);
+            TrendStore.Trend trend;
+            try {
+                if (run != null) {
+                    trend = appendTrend(recorded, key, run, psinsData);
+                } else {
+                    trend = trendStore.getTrend(key, TrendStore.getRunLabel(System.currentTimeMillis()), psinsData, TREND_RUNS);
                 }
-                profileData.put(new Integer(getMachineProfile(psinsFiles[i])), psinsData);
+            } catch (IOException e) {
+                ctx.warn("Unable to record trend for " + ctx.filename + " " + e);
+                continue;
             }
-            if (!processPsinsFile(psinsFiles[0], true)) {
-                return false;
+            if (trend.regression) {
+                ctx.warn("Predicted runtime of " + ctx.filename + " on " + cachedDatabase.getMachineLabel(profile)
+                        + " is " + formatTrend(trend));
             }
-            processStats();
-            outputFiles = new ArrayList();
-            String file = psinsFiles[0];
-            if (!createTextFile(file.substring(0, file.indexOf(".psinsout")))) {
-                return false;
+            ctx.trends.put(entry.getKey(), trend);
+        }
+    }
+
+    // every report of a multi-profile run carries the results of all its profiles, so each result is appended once per run
+    private TrendStore.Trend appendTrend(Map recorded, String key, String run, PsinsData psinsData) throws IOException {
+        synchronized (recorded) {
+            Map trends = (Map) recorded.get(psinsData);
+            if (trends == null) {
+                trends = new HashMap();
+                recorded.put(psinsData, trends);
             }
-            if (!createHTMLFile(file.substring(0, file.indexOf(".psinsout")))) {
-                return false;
+            TrendStore.Trend trend = (TrendStore.Trend) trends.get(key);
+            if (trend == null) {
+                trend = trendStore.append(key, run, psinsData, TREND_RUNS);
+                trends.put(key, trend);
             }
-            if (recipients != null) {
-                setEmailBody();
-                String[] attachments = new String[outputFiles.size()];
-                outputFiles.toArray(attachments);
-                if (!Util.sendEmail(recipients, cc, subject, body, attachments)) {
-                    return false;
+            return trend;
+        }
+    }
+
+    private static String formatTrend(TrendStore.Trend trend) {
+        if (trend == null || trend.count == 0) {
+            return "first run";
+        }
+        String change = String.valueOf(Format.format2d(trend.change * 100));
+        return (trend.change >= 0 ? "+" : "") + change + "% vs " + trend.count + " runs"
+                + (trend.regression ? " REGRESSION" : "");
+    }
+
+    private String getSignature(ReportContext ctx) {
+        String profiles = String.valueOf(ctx.machineProfile);
+        List inputs = new ArrayList();
+        inputs.add(outputDir + ctx.filename);
+        if (ctx.profileData != null) {
+            StringBuffer buffer = new StringBuffer();
+            Iterator iterator = ctx.profileData.keySet().iterator();
+            while (iterator.hasNext()) {
+                Integer profile = (Integer) iterator.next();
+                buffer.append(buffer.length() > 0 ? "," : "").append(profile.toString());
+                String file = psinsIndex.getFile(profile.intValue());
+                if (file != null && !file.equals(ctx.filename)) {
+                    inputs.add(outputDir + file);
                 }
             }
-        } catch (Exception e) {
-            throw e;
+            profiles = buffer.toString();
         }
-        return true;
+        inputs.addAll(getStatsFiles(ctx.machineProfile));
+        return ReportManifest.signature(profiles, inputs);
     }
 
-    private int getMachineProfile(String filename) throws Exception {
-        try {
-            String file = outputDir + filename;
-            FileReader fileReader = new FileReader(new File(file));
-            LineNumberReader reader = new LineNumberReader(fileReader);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (reader.getLineNumber() == 4) {
-                    StringTokenizer tokenizer = new StringTokenizer(line);
-                    String token = "";
-                    while (tokenizer.hasMoreTokens()) {
-                        token = tokenizer.nextToken();
-                    }
-                    if (Character.isDigit(token.charAt(0))) {
-                        return Integer.parseInt(token);
-                    }
-                }
+    private boolean finishReport(ReportContext ctx) throws Exception {
+        outputFiles.addAll(ctx.outputFiles);
+        if (!ctx.success) {
+            return false;
+        }
+        if (ctx.skipped) {
+            return true;
+        }
+        if (recipients != null) {
+            setEmailBody(ctx);
+            String[] attachments = new String[ctx.outputFiles.size()];
+            ctx.outputFiles.toArray(attachments);
+            if (digest != null) {
+                digest.add(recipients, cc, ctx);
+            } else {
+                mailQueue.enqueue(recipients, cc, subject, ctx.body, attachments, zipAttachments ? ctx.name + ".zip" : null,
+                        Collections.singletonList(ctx));
             }
-        } catch (Exception e) {
-            throw e;
         }
-        Logger.warn("Machine profile does not exist in " + filename);
-        return 0;
+        return true;
     }
 
     private Reporter(String dir, String email, boolean save) {
@@ -301,6 +881,8 @@ public class Reporter {
         if (!database.initialize()) {
             Logger.warn("Cannot initialize the database");
         }
+        cachedDatabase = new CachedDatabase(database);
+        cachedDatabase.setMetrics(metrics);
         init(dir);
     }
 
@@ -310,7 +892,7 @@ public class Reporter {
             return null;
         }
         if (database != null) {
-            TreeMap tuples = database.getTestCaseUsers(testCase);
+            TreeMap tuples = cachedDatabase.getTestCaseUsers(testCase);
             if (tuples != null) {
                 Set unqEmails = new HashSet();
                 Iterator it = tuples.keySet().iterator();
@@ -336,7 +918,6 @@ public class Reporter {
         outputDir = dir;
         imagesDir = outputDir + "images/";
         images = new File(imagesDir);
-        images.mkdir();
     }
 
     private boolean run(String file) throws Exception {
@@ -346,25 +927,12 @@ public class Reporter {
         }
         try {
             if (file != null) {
-                if (!processPsinsFile(file, true)) {
-                    return false;
-                }
-                processStats();
-                outputFiles = new ArrayList();
-                if (!createTextFile(file.substring(0, file.indexOf(".psinsout")))) {
+                statsIndexBuilt = false;
+                List reports = new ArrayList();
+                reports.add(new ReportContext(file));
+                if (!runReports(reports)) {
                     return false;
                 }
-                if (!createHTMLFile(file.substring(0, file.indexOf(".psinsout")))) {
-                    return false;
-                }
-                if (recipients != null) {
-                    setEmailBody();
-                    String[] attachments = new String[outputFiles.size()];
-                    outputFiles.toArray(attachments);
-                    if (!Util.sendEmail(recipients, cc, subject, body, attachments)) {
-                        return false;
-                    }
-                }
             } else {
                 return run();
             }
@@ -377,105 +945,104 @@ public class Reporter {
         return true;
     }
 
-    private boolean processPsinsFile(String filename, boolean reporting) throws Exception {
+    PsinsHeader getHeader(String filename) throws Exception {
+        PsinsHeader header = psinsIndex != null ? psinsIndex.getHeader(filename) : null;
+        if (header == null) {
+            long start = metrics.start();
+            header = PsinsHeader.read(outputDir + filename);
+            metrics.stop("header", start);
+        }
+        return header;
+    }
+
+    private void startReport(ReportContext ctx, PsinsHeader header) {
+        ctx.inform("Processing report for " + ctx.filename);
+        ctx.application = !application.isEmpty() ? application : header.application;
+        ctx.dataSet = !dataSet.isEmpty() ? dataSet : header.dataSet;
+        ctx.cpuCount = cpuCount != 0 ? cpuCount : header.cpuCount;
+        ctx.machineProfile = header.machineProfile;
+        ctx.simulatedSystem = cachedDatabase.getBaseResourceName(ctx.machineProfile);
+    }
+
+    PsinsResult parsePsinsFile(String filename, PsinsHeader header) throws Exception {
         try {
-            PsinsParser parser = new PsinsParser();
             String file = outputDir + filename;
-            if (reporting) {
-                Logger.inform("Processing report for " + filename);
-            }
-            FileReader fileReader = new FileReader(new File(file));
-            LineNumberReader reader = new LineNumberReader(fileReader);
-            String line;
-            int count = 0;
-            while ((line = reader.readLine()) != null) {
-                StringTokenizer tokenizer = new StringTokenizer(line);
-                String token = "";
-                while (tokenizer.hasMoreTokens()) {
-                    token = tokenizer.nextToken();
-                }
-                if (reporting && reader.getLineNumber() == 1 && application.isEmpty()) {
-                    application = token;
-                } else if (reporting && reader.getLineNumber() == 2 && dataSet.isEmpty()) {
-                    dataSet = token;
-                } else if (reader.getLineNumber() == 3) {
-                    if (Character.isDigit(token.charAt(0))) {
-                        count = Integer.parseInt(token);
-                    }
-                } else if (reader.getLineNumber() == 4) {
-                    if (Character.isDigit(token.charAt(0))) {
-                        machineProfile = Integer.parseInt(token);
-                    }
-                } 
+            long start = metrics.start();
+            long allocated = metrics.allocated();
+            PsinsResult result = useCache ? ResultCache.loadPsins(file) : null;
+            if (result != null) {
+                metrics.stop("cache.psins", start, allocated);
+                return result;
             }
-            if (reporting) {
-                if (cpuCount == 0) {
-                    cpuCount = count;
-                }
-                simulatedSystem = database.getBaseResourceName(machineProfile);
+            PsinsParser parser = new PsinsParser();
+            PsinsData data = new PsinsData(header.cpuCount);
+            if (!parser.parse(file, data)) {
+                return null;
             }
-            psinsData = new PsinsData(count);
-            if (!parser.parse(file, psinsData)) {
-                return false;
+            result = new PsinsResult(data, TaskEventTable.create(data));
+            metrics.stop("parse.psins", start, allocated);
+            metrics.count("parse.psins.bytes_read", new File(file).length());
+            if (useCache && !readOnly) {
+                ResultCache.savePsins(file, result);
             }
+            return result;
         } catch (Exception e) {
             throw e;
         }
-        return true;
     }
 
-    private boolean processStats() throws Exception {
-        String fileStart = "sysid" + String.valueOf(database.getCacheSysId(machineProfile)) + "_";
-        String fileEnd = "_" + Format.BR(database.getBaseResource(machineProfile)) + "_" + Format.MP(database.getMemoryPIdx(machineProfile));
+    boolean processStats(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        int cacheSysId = cachedDatabase.getCacheSysId(ctx.machineProfile);
+        String baseResource = Format.BR(cachedDatabase.getBaseResource(ctx.machineProfile));
+        String memoryPIdx = Format.MP(cachedDatabase.getMemoryPIdx(ctx.machineProfile));
         try {
-            File folder = new File(outputDir + "stats/");
-            File[] files = folder.listFiles();
-            if (files == null) {
-                Logger.inform("Directory " + outputDir + "stats/ does not exist");
+            StatsIndex index = getStatsIndex();
+            if (index == null) {
+                ctx.inform("Directory " + outputDir + "stats/ does not exist");
                 return true;
             }
-            if (files.length == 0) {
-                Logger.warn("No files found in directory " + outputDir + "/stats");
+            if (index.getFileCount() == 0) {
+                ctx.warn("No files found in directory " + outputDir + "/stats");
                 return true;
             }
-            boolean binsFileFound = false;
-            boolean funcFileFound = false;
-            boolean taskFileFound = false;
-            for (int i = 0; i < files.length; ++i) {
-                if (files[i].isFile()) {
-                    String filename = files[i].getName();
-                    if (!binsFileFound && filename.startsWith(fileStart) && filename.endsWith(fileEnd + ".bins")) {
-                        binsFileFound = true;
-                        BinsParser parser = new BinsParser();
-                        binsData = new BinsData();
-                        if (!parser.parse(outputDir + "stats/" + filename, binsData)) {
-                            return false;
-                        }
-                    } else if (!funcFileFound && filename.startsWith(fileStart) && filename.endsWith(fileEnd + ".func")) {
-                        funcFileFound = true;
-                        FuncParser parser = new FuncParser();
-                        funcData = new FuncData();
-                        if (!parser.parse(outputDir + "stats/" + filename, funcData)) {
-                            return false;
-                        }
-                    } else if (!taskFileFound && filename.startsWith(fileStart) && filename.endsWith(fileEnd + ".task")) {
-                        taskFileFound = true;
-                        TaskParser parser = new TaskParser();
-                        taskData = new TaskData();
-                        if (!parser.parse(outputDir + "stats/" + filename, taskData)) {
-                            return false;
-                        }
-                    }
+            String filename = index.getFile(cacheSysId, baseResource, memoryPIdx, "func");           //each section is written as soon as its file is parsed
+            if (filename != null) {
+                ctx.funcData = parseFunc(outputDir + "stats/" + filename);
+                if (ctx.funcData == null) {
+                    return false;
                 }
+                long start = metrics.start();
+                writeFunctionSection(ctx, out, renderer);
+                metrics.stop("section.functions", start);
+                ctx.funcData = null;
+            } else {
+                ctx.warn("Corresponding .func file not found in directory " + outputDir + "/stats");
             }
-            if (!binsFileFound) {
-                Logger.warn("Corresponding .bins file not found in directory " + outputDir + "/stats");
-            }
-            if (!funcFileFound) {
-                Logger.warn("Corresponding .func file not found in directory " + outputDir + "/stats");
+            filename = index.getFile(cacheSysId, baseResource, memoryPIdx, "bins");
+            if (filename != null) {
+                ctx.binsData = parseBins(outputDir + "stats/" + filename);
+                if (ctx.binsData == null) {
+                    return false;
+                }
+                long start = metrics.start();
+                writeDataMovementSection(ctx, out, renderer);
+                metrics.stop("section.data_movement", start);
+                ctx.binsData = null;
+            } else {
+                ctx.warn("Corresponding .bins file not found in directory " + outputDir + "/stats");
             }
-            if (!taskFileFound) {
-                Logger.warn("Corresponding .task file not found in directory " + outputDir + "/stats");
+            filename = index.getFile(cacheSysId, baseResource, memoryPIdx, "task");
+            if (filename != null) {
+                ctx.taskData = parseTask(outputDir + "stats/" + filename);
+                if (ctx.taskData == null) {
+                    return false;
+                }
+                long start = metrics.start();
+                writeTaskStats(ctx, out);
+                metrics.stop("section.task_stats", start);
+                ctx.taskData = null;
+            } else {
+                ctx.warn("Corresponding .task file not found in directory " + outputDir + "/stats");
             }
         } catch (Exception e) {
             throw e;
@@ -483,593 +1050,890 @@ public class Reporter {
         return true;
     }
 
-    private boolean createTextFile(String filename) throws Exception {
-        try {
-            outputFiles.add(outputDir + filename + ".txt");
-            File file = new File(outputDir, filename + ".txt");
-            file.createNewFile();
-            FileWriter fstream = new FileWriter(file);
-            PrintWriter out = new PrintWriter(fstream);
-            Iterator iterator;
-            if (application != null) {
-                out.println("Application: " + application);
-            }
-            if (dataSet != null) {
-                out.println("Data Set: " + dataSet);
-            }
-            if (cpuCount != 0) {
-                out.println("CPU Count: " + String.valueOf(cpuCount));
-            }
-            if (simulatedSystem != null) {
-                out.println("Simulated System: " + simulatedSystem);
-            }
-            if (profileData != null) {                                                             //machine profile table
-                Set set = profileData.entrySet();
-                Iterator itr = set.iterator();
-                out.println("\nMachine\tPredicted Runtime\t% Communication");
-                out.println("-------\t-----------------\t---------------");
-                while (itr.hasNext()) {
-                    Map.Entry entry = (Map.Entry) itr.next();
-                    PsinsData data = (PsinsData) entry.getValue();
-                    double percentComm = data.totalCommunicationTime
-                            / (data.totalCommunicationTime + data.totalComputationTime) * 100;
-                    out.println(database.getMachineLabel(((Integer) entry.getKey()).intValue()) + "\t"
-                            + String.valueOf(Format.format2d(data.totalPredictionTime)) + "\t"
-                            + String.valueOf((int) percentComm) + "%");
-                }
+    synchronized StatsIndex getStatsIndex() {
+        if (!statsIndexBuilt) {
+            statsIndexBuildTime = System.currentTimeMillis();
+            statsDirModified = new File(outputDir + "stats/").lastModified();                      //read before listing so later changes are seen
+            statsIndex = StatsIndex.build(outputDir + "stats/");
+            statsIndexBuilt = true;
+        }
+        return statsIndex;
+    }
+
+    private BinsData parseBins(String file) throws Exception {
+        long start = metrics.start();
+        long allocated = metrics.allocated();
+        BinsData data = useCache ? ResultCache.loadBins(file) : null;
+        if (data != null) {
+            metrics.stop("cache.bins", start, allocated);
+        } else {
+            BinsParser parser = new BinsParser();
+            data = new BinsData();
+            if (!parser.parse(file, data)) {
+                return null;
             }
-            out.println("\nProcessing and Communication Time As Percentage of Total");             //Etime data
-            out.println("--------------------------------------------------------");
-            iterator = psinsData.etimes.iterator();
-            while (iterator.hasNext()) {
-                Event event = (Event) iterator.next();
-                if (event.value > 0) {
-                    //String output = String.format("%s \t  %5.2f", event.eventType, event.value);
-                    String output = event.eventType + "\t" + String.valueOf(event.value);
-                    out.println(output);
-                }
+            metrics.stop("parse.bins", start, allocated);
+            metrics.count("parse.bins.bytes_read", new File(file).length());
+            if (useCache && !readOnly) {
+                ResultCache.saveBins(file, data);
             }
-            if (funcData != null) {                                                                //function times
-                out.println("\nFunctions Calls With Most Processing Time");
-                out.println("-----------------------------------------");
-                iterator = funcData.funcTimes.iterator();
-                int count = 1;
-                while (iterator.hasNext() && count <= 5) {
-                    FuncTime func = (FuncTime) iterator.next();
-                    out.println(func.name + "\t" + Format.format2d(func.time));
-                    ++count;
-                }
+        }
+        return data;
+    }
+
+    private FuncData parseFunc(String file) throws Exception {
+        long start = metrics.start();
+        long allocated = metrics.allocated();
+        FuncData data = useCache ? ResultCache.loadFunc(file) : null;
+        if (data != null) {
+            metrics.stop("cache.func", start, allocated);
+        } else {
+            FuncParser parser = new FuncParser();
+            data = new FuncData();
+            if (!parser.parse(file, data)) {
+                return null;
             }
-            if (binsData != null) {                                                                //hit rates
-                out.println("\nHit Rates");
-                out.println("---------");
-                double total = binsData.timeL1 + binsData.timeL2 + binsData.timeL3 + binsData.timeMM;
-                out.println("L1 - " + String.valueOf((int) (binsData.timeL1 / total * 100)) + "%");
-                if (binsData.timeL2 > 0) {
-                    out.println("L2 - " + String.valueOf((int) (binsData.timeL2 / total * 100)) + "%");
-                }
-                if (binsData.timeL3 > 0) {
-                    out.println("L3 - " + String.valueOf((int) (binsData.timeL3 / total * 100)) + "%");
-                }
-                out.println("Main memory - " + String.valueOf((int) (binsData.timeMM / total * 100)) + "%");
+            metrics.stop("parse.func", start, allocated);
+            metrics.count("parse.func.bytes_read", new File(file).length());
+            if (useCache && !readOnly) {
+                ResultCache.saveFunc(file, data);
             }
-            if (taskData != null) {                                                                //task time stats
-                out.println("\nTask Time Stats");
-                out.println("---------------");
-                out.println("Min - " + Format.format2d(taskData.min));
-                out.println("Max - " + Format.format2d(taskData.max));
-                out.println("Mean - " + Format.format2d(taskData.avg));
-                out.println("Standard Deviation - " + Format.format2d(taskData.standardDeviation));
+        }
+        return data;
+    }
+
+    private TaskData parseTask(String file) throws Exception {
+        long start = metrics.start();
+        long allocated = metrics.allocated();
+        TaskData data = useCache ? ResultCache.loadTask(file) : null;
+        if (data != null) {
+            metrics.stop("cache.task", start, allocated);
+        } else {
+            TaskParser parser = new TaskParser();
+            data = new TaskData();
+            if (!parser.parse(file, data)) {
+                return null;
+            }
+            metrics.stop("parse.task", start, allocated);
+            metrics.count("parse.task.bytes_read", new File(file).length());
+            if (useCache && !readOnly) {
+                ResultCache.saveTask(file, data);
             }
-            out.close();
+        }
+        return data;
+    }
+
+    boolean writeReport(ReportContext ctx, OutputStream mirror) throws Exception {
+        String filename = ctx.name;
+        ReportWriter out;
+        try {
+            ctx.outputFiles.add(outputDir + filename + ".txt");
+            ctx.outputFiles.add(outputDir + filename + ".html");
+            out = new ReportWriter(new File(outputDir, filename + ".txt"), new File(outputDir, filename + ".html"), mirror);
         } catch (Exception e) {
-            Logger.error("Exception while creating text file " + filename + " " + e);
+            ctx.error("Exception while creating report files " + filename + " " + e);
+            throw e;
+        }
+        if (!inlineCharts) {
+            images.mkdir();                                                                        //created on first use so reading a directory leaves it unchanged
+        }
+        ChartRenderer renderer = new ChartRenderer(chartWriter, metrics);
+        boolean written = false;
+        long start = metrics.start();
+        try {
+            long sectionStart = metrics.start();
+            writeSummary(ctx, out);
+            writeRuntimeTable(ctx, out);
+            writeTrendSection(ctx, out, renderer);
+            metrics.stop("section.summary", sectionStart);
+            sectionStart = metrics.start();
+            writeETimeSection(ctx, out, renderer);
+            metrics.stop("section.etime", sectionStart);
+            sectionStart = metrics.start();
+            writePerTaskSection(ctx, out, renderer);
+            metrics.stop("section.per_task", sectionStart);
+            sectionStart = metrics.start();
+            writeImbalanceSection(ctx, out);
+            metrics.stop("section.imbalance", sectionStart);
+            ctx.taskTable = null;
+            sectionStart = metrics.start();
+            processStats(ctx, out, renderer);
+            metrics.stop("process_stats", sectionStart);
+            sectionStart = metrics.start();
+            writeLinks(ctx, out);
+            metrics.stop("section.links", sectionStart);
+        } catch (Exception e) {
+            ctx.error("Exception while writing report files " + filename + " " + e);
+            throw e;
+        } finally {
+            written = out.close();
+        }
+        metrics.stop("write_report", start);
+        if (!written) {
+            ctx.error("Error while writing report files " + filename);
+            return false;
+        }
+        try {
+            start = metrics.start();
+            renderer.join(ctx.outputFiles);
+            metrics.stop("chart.join", start);
+        } catch (Exception e) {
+            ctx.error(e.getMessage());
             throw e;
         }
         return true;
     }
 
-    private boolean createHTMLFile(String filename) throws Exception {
-        //ETaskTime data will not exist if the --brief_results flag was passed to PSiNS
-        boolean ETaskTimeData = psinsData.taskEventTimes[0] != null ? true : false;
-        try {    	                                                                           // create HTML file
-            outputFiles.add(outputDir + filename + ".html");
-            File file = new File(outputDir, filename + ".html");
-            file.createNewFile();
-            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
-            PrintWriter writer = new PrintWriter(out);
-            writer.println("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
-            writer.println("<html>");
-            writer.println("<head>");
-            writer.println("<title>PMaC Tools Automated Modeling Analysis></title>");
-            writer.println("<link rel=\"stylesheet\" href=\"pmac-tools-report.css\">");
-            writer.println("</head>");
-            writer.println("<body>");
-            writer.println("<div id=\"container\">");
-            writer.println("<div id=\"intro\">");
-            writer.println("<div id=\"logoheader\">");
-            writer.println("<a href=\"http://www.pmaclabs.com/\"> <img src=\"pmac_logo_whitebg.gif\" width=\"530\" height=\"82\"  alt=\"PMaC Laboratories, Inc.\"></a>");
-            writer.println("<a href=\"http://pettt-ace.com/\"> <img src=\"ace_logo.png\" width=\"63\" height=\"80\"  alt=\"Pettt-Ace\"></a>");
-            writer.println("</div>");
-            writer.println("<div id=\"testcase\">");                                               //Test Case Summary
-            writer.println("<h1>Test Case Summary - " + simulatedSystem + "</h1>");
-            writer.println("<table>");
+    private void writeSummary(ReportContext ctx, ReportWriter out) {
+        PrintWriter text = out.text;
+        if (ctx.application != null) {
+            text.println("Application: " + ctx.application);
+        }
+        if (ctx.dataSet != null) {
+            text.println("Data Set: " + ctx.dataSet);
+        }
+        if (ctx.cpuCount != 0) {
+            text.println("CPU Count: " + String.valueOf(ctx.cpuCount));
+        }
+        if (ctx.simulatedSystem != null) {
+            text.println("Simulated System: " + ctx.simulatedSystem);
+        }
+        PrintWriter writer = out.html;
+        writer.println("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
+        writer.println("<html>");
+        writer.println("<head>");
+        writer.println("<title>PMaC Tools Automated Modeling Analysis></title>");
+        writer.println("<link rel=\"stylesheet\" href=\"pmac-tools-report.css\">");
+        writer.println("</head>");
+        writer.println("<body>");
+        writer.println("<div id=\"container\">");
+        writer.println("<div id=\"intro\">");
+        writer.println("<div id=\"logoheader\">");
+        writer.println("<a href=\"http://www.pmaclabs.com/\"> <img src=\"pmac_logo_whitebg.gif\" width=\"530\" height=\"82\"  alt=\"PMaC Laboratories, Inc.\"></a>");
+        writer.println("<a href=\"http://pettt-ace.com/\"> <img src=\"ace_logo.png\" width=\"63\" height=\"80\"  alt=\"Pettt-Ace\"></a>");
+        writer.println("</div>");
+        writer.println("<div id=\"testcase\">");                                                   //Test Case Summary
+        writer.println("<h1>Test Case Summary - " + ctx.simulatedSystem + "</h1>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<td><b>Application:</b>" + ctx.application + "</td>");
+        writer.println("<td><b>Data Set:</b>" + ctx.dataSet + "</td>");
+        writer.println("<td><b>CPU Count:</b>" + String.valueOf(ctx.cpuCount) + "</td>");
+        writer.println("</tr>");
+        writer.println("</table>");
+        writer.println("</div>"); //testcase
+        writer.println("</div>"); //intro
+        out.endSection("summary");
+    }
+
+    private void writeRuntimeTable(ReportContext ctx, ReportWriter out) {
+        if (ctx.profileData == null) {
+            return;
+        }
+        PrintWriter text = out.text;                                                               //machine profile table
+        Set set = ctx.profileData.entrySet();
+        Iterator itr = set.iterator();
+        text.println("\nMachine\tPredicted Runtime\t% Communication" + (ctx.trends != null ? "\tTrend" : ""));
+        text.println("-------\t-----------------\t---------------" + (ctx.trends != null ? "\t-----" : ""));
+        while (itr.hasNext()) {
+            Map.Entry entry = (Map.Entry) itr.next();
+            PsinsData data = (PsinsData) entry.getValue();
+            double percentComm = data.totalCommunicationTime
+                    / (data.totalCommunicationTime + data.totalComputationTime) * 100;
+            text.println(cachedDatabase.getMachineLabel(((Integer) entry.getKey()).intValue()) + "\t"
+                    + String.valueOf(Format.format2d(data.totalPredictionTime)) + "\t"
+                    + String.valueOf((int) percentComm) + "%"
+                    + (ctx.trends != null ? "\t" + formatTrend((TrendStore.Trend) ctx.trends.get(entry.getKey())) : ""));
+        }
+        PrintWriter writer = out.html;                                                             //Estimated Application Runtime Per System
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"per_system_time\"></a>");
+        writer.println("<h1>Estimated Application Runtime Per System</h1>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<th>Machine</th>");
+        writer.println("<th>Runtime</th>");
+        writer.println("<th>Communication</th>");
+        if (ctx.trends != null) {
+            writer.println("<th>Trend</th>");
+        }
+        writer.println("</tr>");
+        itr = set.iterator();
+        while (itr.hasNext()) {
+            Map.Entry entry = (Map.Entry) itr.next();
+            PsinsData data = (PsinsData) entry.getValue();
+            double percentComm = data.totalCommunicationTime
+                    / (data.totalCommunicationTime + data.totalComputationTime) * 100;
             writer.println("<tr>");
-            writer.println("<td><b>Application:</b>" + application + "</td>");
-            writer.println("<td><b>Data Set:</b>" + dataSet + "</td>");
-            writer.println("<td><b>CPU Count:</b>" + String.valueOf(cpuCount) + "</td>");
+            writer.println("<td>" + cachedDatabase.getBaseResourceName(((Integer) entry.getKey()).intValue()) + "</td>");
+            writer.println("<td>" + String.valueOf(Format.format2d(data.totalPredictionTime)) + "</td>");
+            writer.println("<td>" + String.valueOf((int) percentComm) + "%</td>");
+            if (ctx.trends != null) {
+                writer.println("<td>" + formatTrend((TrendStore.Trend) ctx.trends.get(entry.getKey())) + "</td>");
+            }
             writer.println("</tr>");
-            writer.println("</table>");
-            writer.println("</div>"); //testcase
-            writer.println("</div>"); //intro
-            if (profileData != null) {                                                              //Estimated Application Runtime Per System
-                writer.println("<div id=\"supportingdata\">");
-                writer.println("<a name=\"per_system_time\"></a>");
-                writer.println("<h1>Estimated Application Runtime Per System</h1>");
-                writer.println("<table>");
+        }
+        writer.println("</table>");
+        writer.println("</div>");
+        out.endSection("per_system_time");
+    }
+
+    private void writeTrendSection(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        if (ctx.trends == null || ctx.trends.isEmpty()) {
+            return;
+        }
+        boolean history = false;
+        Iterator itr = ctx.trends.values().iterator();
+        while (itr.hasNext()) {
+            history |= ((TrendStore.Trend) itr.next()).history.length > 1;
+        }
+        if (!history) {
+            return;
+        }
+        String filename = ctx.name;
+        try {                                                                                      //create trend line chart
+            addChart(renderer, createTrendChart(ctx), filename, "trend_linechart", 600, 400);
+        } catch (Exception e) {
+            ctx.error("Exception while creating trend line chart " + e);
+            throw e;
+        }
+        PrintWriter text = out.text;
+        text.println("\nPredicted Runtime Across Runs");
+        text.println("-----------------------------");
+        PrintWriter writer = out.html;                                                             //Predicted Runtime Across Runs
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"runtime_trend\"></a>");
+        writer.println("<h1>Predicted Runtime Across Runs</h1>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<td>" + getChartElement(renderer, filename + "_trend_linechart") + "</td>");
+        writer.println("</tr>");
+        writer.println("</table>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<th>Machine</th>");
+        writer.println("<th>Run</th>");
+        writer.println("<th>Runtime</th>");
+        writer.println("<th>Communication</th>");
+        writer.println("</tr>");
+        itr = ctx.trends.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry entry = (Map.Entry) itr.next();
+            TrendStore.Trend trend = (TrendStore.Trend) entry.getValue();
+            String machine = cachedDatabase.getMachineLabel(((Integer) entry.getKey()).intValue());
+            text.println(machine + "\t" + formatTrend(trend));
+            for (int i = 0; i < trend.history.length; ++i) {
+                TrendStore.Record record = trend.history[i];
+                double percentComm = record.communicationTime
+                        / (record.communicationTime + record.computationTime) * 100;
+                text.println("\t" + record.run + "\t" + String.valueOf(Format.format2d(record.predictionTime)));
                 writer.println("<tr>");
-                writer.println("<th>Machine</th>");
-                writer.println("<th>Runtime</th>");
-                writer.println("<th>Communication</th>");
+                writer.println("<td>" + machine + "</td>");
+                writer.println("<td>" + record.run + "</td>");
+                writer.println("<td>" + String.valueOf(Format.format2d(record.predictionTime)) + "</td>");
+                writer.println("<td>" + String.valueOf((int) percentComm) + "%</td>");
                 writer.println("</tr>");
-                Set set = profileData.entrySet();
-                Iterator itr = set.iterator();
-                while (itr.hasNext()) {
-                    Map.Entry entry = (Map.Entry) itr.next();
-                    PsinsData data = (PsinsData) entry.getValue();
-                    double percentComm = data.totalCommunicationTime
-                            / (data.totalCommunicationTime + data.totalComputationTime) * 100;
+            }
+        }
+        writer.println("</table>");
+        writer.println("</div>");
+        out.endSection("runtime_trend");
+    }
+
+    private void writeETimeSection(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        String filename = ctx.name;
+        try {                                                                                      //create ETime pie chart
+            addChart(renderer, createETimeChart(ctx), filename, "etime_piechart", 600, 400);
+        } catch (Exception e) {
+            ctx.error("Exception while creating ETime pie chart " + e);
+            throw e;
+        }
+        PrintWriter text = out.text;
+        text.println("\nProcessing and Communication Time As Percentage of Total");                //Etime data
+        text.println("--------------------------------------------------------");
+        Iterator iterator = ctx.psinsData.etimes.iterator();
+        while (iterator.hasNext()) {
+            Event event = (Event) iterator.next();
+            if (event.value > 0) {
+                //String output = String.format("%s \t  %5.2f", event.eventType, event.value);
+                String output = event.eventType + "\t" + String.valueOf(event.value);
+                text.println(output);
+            }
+        }
+        PrintWriter writer = out.html;
+        writer.println("<div id=\"supportingdata\">");                                             //Total Processing and Message Passing Time
+        writer.println("<a name=\"message_passing_overview\"></a>");
+        writer.println("<h1>Total Processing and Message Passing Time</h1>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<td>" + getChartElement(renderer, filename + "_etime_piechart") + "</td>");
+        writer.println("</tr>");
+        writer.println("<tr>");
+        writer.println("<td>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<th>MPI Event</th>");
+        writer.println("<th>Total Bytes</th>");
+        writer.println("<th>Number of Calls</th>");
+        writer.println("<th>Avg. Bytes</th>");
+        writer.println("</tr>");
+        Iterator iter = ctx.psinsData.etimes.iterator();
+        while (iter.hasNext()) {
+            Event event = (Event) iter.next();
+            if (event.value >= 1.0) {
+                CommSize commSize = (CommSize) ctx.psinsData.commSizes.get(event.eventType);
+                if (commSize != null) {
                     writer.println("<tr>");
-                    writer.println("<td>" + database.getBaseResourceName(((Integer) entry.getKey()).intValue()) + "</td>");
-                    writer.println("<td>" + String.valueOf(Format.format2d(data.totalPredictionTime)) + "</td>");
-                    writer.println("<td>" + String.valueOf((int) percentComm) + "%</td>");
+                    writer.println("<td>" + event.eventType + "</td>");
+                    writer.println("<td>" + String.valueOf(commSize.totalBytes) + "</td>");
+                    writer.println("<td>" + String.valueOf(commSize.count) + "</td>");
+                    writer.println("<td>" + Format.format2d(commSize.avgBytes) + "</td>");
                     writer.println("</tr>");
                 }
-                writer.println("</table>");
-                writer.println("</div>");
             }
-            writer.println("<div id=\"supportingdata\">");                                         //Total Processing and Message Passing Time
-            writer.println("<a name=\"message_passing_overview\"></a>");
-            writer.println("<h1>Total Processing and Message Passing Time</h1>");
-            writer.println("<table>");
+        }
+        writer.println("</table>");
+        writer.println("</td>");
+        writer.println("</tr>");
+        writer.println("</table>");
+        writer.println("</div>");
+        out.endSection("message_passing_overview");
+    }
+
+    private void writePerTaskSection(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        //ETaskTime data will not exist if the --brief_results flag was passed to PSiNS
+        if (ctx.taskTable == null) {
+            return;
+        }
+        String filename = ctx.name;
+        try {                                                                                      //create ETaskTime bar chart
+            addChart(renderer, createETaskTimeChart(ctx), filename, "etasktime_barchart", 1200, 800);
+        } catch (Exception e) {
+            ctx.error("Exception while creating ETaskTime bar chart " + e);
+            throw e;
+        }
+        PrintWriter writer = out.html;                                                             //Per-Task Processing and Message Passing Time
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"message_passing_per_cpu\"></a>");
+        writer.println("<h1>Per-Task Processing and Message Passing Time</h1>");
+        writer.println(getChartElement(renderer, filename + "_etasktime_barchart"));
+        if (ctx.taskTable.getTaskCount() > ETASK_BIN_THRESHOLD) {
+            writer.println("<p>Tasks are grouped into " + String.valueOf(ETASK_MAX_BINS)
+                    + " ranges; stacked bars show the mean time of each event, the outlined bar beside each spans the minimum to"
+                    + " maximum time of that event in the range, and lines show the minimum and maximum total task time in each range.</p>");
+        }
+        if (!ctx.psinsData.eTaskTimeComments.isEmpty()) {
+            writer.println("<h3><a title=\"" + ETASK_TIME_COMMENT + "\">Imbalanced</a> MPI Functions:</h3>");
+            String events = "";
+            Iterator iter = ctx.psinsData.eTaskTimeComments.iterator();
+            int i = 1;
+            while (iter.hasNext()) {
+                events += i != ctx.psinsData.eTaskTimeComments.size() ? (String) iter.next() + ", " : (String) iter.next();
+                ++i;
+            }
+            writer.println(events);
+        }
+        writer.println("</div>");
+        out.endSection("message_passing_per_cpu");
+    }
+
+    private void writeImbalanceSection(ReportContext ctx, ReportWriter out) {
+        if (ctx.taskTable == null) {
+            return;
+        }
+        List events = ImbalanceAnalyzer.analyze(ctx.taskTable, ctx.psinsData.totalPredictionTime * 0.01);
+        int rows = Math.min(events.size(), IMBALANCE_EVENTS + 1);
+        PrintWriter text = out.text;                                                               //load imbalance
+        text.println("\nLoad Imbalance");
+        text.println("--------------");
+        text.println("Event\tMax/Mean\tMean\tP50\tP90\tP99\tMax\tSlowest Tasks\tTask Groups");
+        PrintWriter writer = out.html;                                                             //Load Imbalance
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"load_imbalance\"></a>");
+        writer.println("<h1>Load Imbalance</h1>");
+        writer.println("<p>Events are ordered by the time of the slowest task over the mean. Tasks with similar times are grouped; each group is shown as its size and mean time.</p>");
+        writer.println("<table>");
+        writer.println("<tr>");
+        writer.println("<th>Event</th>");
+        writer.println("<th>Max/Mean</th>");
+        writer.println("<th>Mean</th>");
+        writer.println("<th>50th</th>");
+        writer.println("<th>90th</th>");
+        writer.println("<th>99th</th>");
+        writer.println("<th>Max</th>");
+        writer.println("<th>Slowest Tasks</th>");
+        writer.println("<th>Task Groups</th>");
+        writer.println("</tr>");
+        for (int i = 0; i < rows; ++i) {
+            ImbalanceAnalyzer.EventImbalance imbalance = (ImbalanceAnalyzer.EventImbalance) events.get(i);
+            String slowest = "";
+            for (int t = 0; t < imbalance.slowestTasks.length; ++t) {
+                slowest += (t > 0 ? ", " : "") + imbalance.slowestTasks[t] + " (" + Format.format2d(imbalance.slowestTimes[t]) + ")";
+            }
+            String groups = "";
+            for (int g = 0; g < imbalance.clusterSizes.length; ++g) {
+                groups += (g > 0 ? ", " : "") + imbalance.clusterSizes[g] + " x " + Format.format2d(imbalance.clusterCenters[g]);
+            }
+            text.println(imbalance.event + "\t" + Format.format2d(imbalance.ratio) + "\t" + Format.format2d(imbalance.mean)
+                    + "\t" + Format.format2d(imbalance.percentiles[0]) + "\t" + Format.format2d(imbalance.percentiles[1])
+                    + "\t" + Format.format2d(imbalance.percentiles[2]) + "\t" + Format.format2d(imbalance.max)
+                    + "\t" + slowest + "\t" + groups);
             writer.println("<tr>");
-            writer.println("<td><img src=\"" + imgSrcPath + filename + "_etime_piechart.png\" width=\"514px\"></td>");
+            writer.println("<td>" + imbalance.event + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.ratio) + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.mean) + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.percentiles[0]) + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.percentiles[1]) + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.percentiles[2]) + "</td>");
+            writer.println("<td>" + Format.format2d(imbalance.max) + "</td>");
+            writer.println("<td>" + slowest + "</td>");
+            writer.println("<td>" + groups + "</td>");
             writer.println("</tr>");
-            writer.println("<tr>");
-            writer.println("<td>");
+        }
+        writer.println("</table>");
+        if (rows < events.size()) {
+            writer.println("<p>" + String.valueOf(events.size() - rows) + " more events are less imbalanced.</p>");
+        }
+        writer.println("</div>");
+        out.endSection("load_imbalance");
+    }
+
+    private void writeFunctionSection(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        String filename = ctx.name;
+        try {                                                                                      //create func time pie chart
+            addChart(renderer, createFuncTimeChart(ctx), filename, "functime_piechart", 600, 400);
+        } catch (Exception e) {
+            ctx.error("Exception while creating functime pie chart " + e);
+            throw e;
+        }
+        PrintWriter text = out.text;                                                               //function times
+        text.println("\nFunctions Calls With Most Processing Time");
+        text.println("-----------------------------------------");
+        Iterator iterator = ctx.funcData.funcTimes.iterator();
+        int count = 1;
+        while (iterator.hasNext() && count <= 5) {
+            FuncTime func = (FuncTime) iterator.next();
+            text.println(func.name + "\t" + Format.format2d(func.time));
+            ++count;
+        }
+        PrintWriter writer = out.html;                                                             //Functions With Highest Processing Time
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"function_time_overview\"></a>");
+        writer.println("<h1>Functions With Highest Processing Time</h1>");
+        writer.println(getChartElement(renderer, filename + "_functime_piechart"));
+        if (!ctx.funcData.funcTimeComments.isEmpty()) {
             writer.println("<table>");
             writer.println("<tr>");
-            writer.println("<th>MPI Event</th>");
-            writer.println("<th>Total Bytes</th>");
-            writer.println("<th>Number of Calls</th>");
-            writer.println("<th>Avg. Bytes</th>");
+            writer.println("<th>Function Name</th>");
+            writer.println("<th>Run Time</th>");
+            if (ctx.funcData.cachelevels >= 1) {
+                writer.println("<th>Avg. L1 Hit rate</th>");
+            }
+            if (ctx.funcData.cachelevels >= 2) {
+                writer.println("<th>Avg. L2 Hit rate</th>");
+            }
+            if (ctx.funcData.cachelevels >= 3) {
+                writer.println("<th>Avg. L3 Hit rate</th>");
+            }
             writer.println("</tr>");
-            Iterator iter = psinsData.etimes.iterator();
+            Iterator iter = ctx.funcData.funcTimes.iterator();
+            count = 1;
             while (iter.hasNext()) {
-                Event event = (Event) iter.next();
-                if (event.value >= 1.0) {
-                    CommSize commSize = (CommSize) psinsData.commSizes.get(event.eventType);
-                    if (commSize != null) {
-                        writer.println("<tr>");
-                        writer.println("<td>" + event.eventType + "</td>");
-                        writer.println("<td>" + String.valueOf(commSize.totalBytes) + "</td>");
-                        writer.println("<td>" + String.valueOf(commSize.count) + "</td>");
-                        writer.println("<td>" + Format.format2d(commSize.avgBytes) + "</td>");
-                        writer.println("</tr>");
+                FuncTime func = (FuncTime) iter.next();
+                if (count <= NUM_FUNC && !func.name.contentEquals("<others>")) {
+                    writer.println("<tr>");
+                    writer.println("<td>" + func.name + "</td>");
+                    writer.println("<td>" + Format.format2d(func.time / ctx.cpuCount) + "</td>");
+                    Iterator itr = func.hitRates.iterator();
+                    while (itr.hasNext()) {
+                        Double hitrate = (Double) itr.next();
+                        writer.println("<td>" + Format.format2d(hitrate.doubleValue()) + "%" + "</td>");
                     }
+                    writer.println("</tr>");
+                    ++count;
                 }
             }
             writer.println("</table>");
-            writer.println("</td>");
+        }
+        writer.println("</div>");
+        out.endSection("function_time_overview");
+    }
+
+    private void writeDataMovementSection(ReportContext ctx, ReportWriter out, ChartRenderer renderer) throws Exception {
+        String filename = ctx.name;
+        try {                                                                                      //create bins data pie chart
+            addChart(renderer, createHitRateChart(ctx), filename, "hitrates_piechart", 600, 400);
+        } catch (Exception e) {
+            ctx.error("Exception while creating hit rate pie chart " + e);
+            throw e;
+        }
+        PrintWriter text = out.text;                                                               //hit rates
+        text.println("\nHit Rates");
+        text.println("---------");
+        double total = ctx.binsData.timeL1 + ctx.binsData.timeL2 + ctx.binsData.timeL3 + ctx.binsData.timeMM;
+        text.println("L1 - " + String.valueOf((int) (ctx.binsData.timeL1 / total * 100)) + "%");
+        if (ctx.binsData.timeL2 > 0) {
+            text.println("L2 - " + String.valueOf((int) (ctx.binsData.timeL2 / total * 100)) + "%");
+        }
+        if (ctx.binsData.timeL3 > 0) {
+            text.println("L3 - " + String.valueOf((int) (ctx.binsData.timeL3 / total * 100)) + "%");
+        }
+        text.println("Main memory - " + String.valueOf((int) (ctx.binsData.timeMM / total * 100)) + "%");
+        PrintWriter writer = out.html;                                                             //Analysis of Data Movement
+        writer.println("<div id=\"supportingdata\">");
+        writer.println("<a name=\"cache_behavior_overview\"></a>");
+        writer.println("<h1>Analysis of Data Movement</h1>");
+        writer.println("Our analysis shows that your application is spending its time <a title=\"" + HIT_RATE_COMMENT + "\">waiting for memory</a> in the following places:");
+        writer.println(getChartElement(renderer, filename + "_hitrates_piechart"));
+        if (!ctx.binsData.comments.isEmpty()) {
+            writer.println("<table>");
+            writer.println("<tr>");
+            writer.println("<th>Cache Level</th>");
+            writer.println("<th>Time Spent</th>");
+            writer.println("<th>% Time</th>");
             writer.println("</tr>");
-            writer.println("</table>");
-            writer.println("</div>");
-            if (ETaskTimeData) {                                                                   //Per-Task Processing and Message Passing Time
-                writer.println("<div id=\"supportingdata\">");
-                writer.println("<a name=\"message_passing_per_cpu\"></a>");
-                writer.println("<h1>Per-Task Processing and Message Passing Time</h1>");
-                writer.println("<img src=\"" + imgSrcPath + filename + "_etasktime_barchart.png\" width=\"514px\">");
-                if (!psinsData.eTaskTimeComments.isEmpty()) {
-                    writer.println("<h3><a title=\"" + ETASK_TIME_COMMENT + "\">Imbalanced</a> MPI Functions:</h3>");
-                    String events = "";
-                    iter = psinsData.eTaskTimeComments.iterator();
-                    int i = 1;
-                    while (iter.hasNext()) {
-                        events += i != psinsData.eTaskTimeComments.size() ? (String) iter.next() + ", " : (String) iter.next();
-                        ++i;
-                    }
-                    writer.println(events);
-                }
-                writer.println("</div>");
-            }
-            if (funcData != null) {                                                                //Functions With Highest Processing Time
-                writer.println("<div id=\"supportingdata\">");
-                writer.println("<a name=\"function_time_overview\"></a>");
-                writer.println("<h1>Functions With Highest Processing Time</h1>");
-                writer.println("<img src=\"" + imgSrcPath + filename + "_functime_piechart.png\" width=\"514px\">");
-                if (!funcData.funcTimeComments.isEmpty()) {
-                    writer.println("<table>");
-                    writer.println("<tr>");
-                    writer.println("<th>Function Name</th>");
-                    writer.println("<th>Run Time</th>");
-                    if (funcData.cachelevels >= 1) {
-                        writer.println("<th>Avg. L1 Hit rate</th>");
-                    }
-                    if (funcData.cachelevels >= 2) {
-                        writer.println("<th>Avg. L2 Hit rate</th>");
-                    }
-                    if (funcData.cachelevels >= 3) {
-                        writer.println("<th>Avg. L3 Hit rate</th>");
-                    }
-                    writer.println("</tr>");
-                    iter = funcData.funcTimes.iterator();
-                    int count = 1;
-                    while (iter.hasNext()) {
-                        FuncTime func = (FuncTime) iter.next();
-                        if (count <= NUM_FUNC && !func.name.contentEquals("<others>")) {
-                            writer.println("<tr>");
-                            writer.println("<td>" + func.name + "</td>");
-                            writer.println("<td>" + Format.format2d(func.time / cpuCount) + "</td>");
-                            Iterator itr = func.hitRates.iterator();
-                            while (itr.hasNext()) {
-                                Double hitrate = (Double) itr.next();
-                                writer.println("<td>" + Format.format2d(hitrate.doubleValue()) + "%" + "</td>");
-                            }
-                            writer.println("</tr>");
-                            ++count;
-                        }
-                    }
-                    writer.println("</table>");
-                }
-                writer.println("</div>");
-            }
-            if (binsData != null) {                                                                //Analysis of Data Movement
-                writer.println("<div id=\"supportingdata\">");
-                writer.println("<a name=\"cache_behavior_overview\"></a>");
-                writer.println("<h1>Analysis of Data Movement</h1>");
-                writer.println("Our analysis shows that your application is spending its time <a title=\"" + HIT_RATE_COMMENT + "\">waiting for memory</a> in the following places:");
-                writer.println("<img src=\"" + imgSrcPath + filename + "_hitrates_piechart.png\" width=\"514px\">");
-                if (!binsData.comments.isEmpty()) {
-                    writer.println("<table>");
-                    writer.println("<tr>");
-                    writer.println("<th>Cache Level</th>");
-                    writer.println("<th>Time Spent</th>");
-                    writer.println("<th>% Time</th>");
-                    writer.println("</tr>");
-                    iter = binsData.comments.iterator();
-                    while (iter.hasNext()) {
-                        MemoryStats stats = (MemoryStats) iter.next();
-                        String level = "Main Mem.";
-                        if (stats.cacheLevel == 1) {
-                            level = "L1";
-                        } else if (stats.cacheLevel == 2) {
-                            level = "L2";
-                        } else if (stats.cacheLevel == 3) {
-                            level = "L3";
-                        }
-                        writer.println("<tr>");
-                        writer.println("<td>" + level + "</td>");
-                        writer.println("<td>" + Format.format2d(stats.time / cpuCount) + "</td>");
-                        writer.println("<td>" + Format.format2d(stats.percent_total_time) + "%" + "</td>");
-                        writer.println("</tr>");
-                    }
-                    writer.println("</table>");
-                }
-                int percentMM = (int) (binsData.timeMM / binsData.totalTime * 100);
-                if (percentMM > 50) {
-                    writer.println("More than " + String.valueOf(percentMM) + "% of time is spent in main memory.<br>");
-                    writer.println("Some cache optimizations might help improve performance.<br>");
+            Iterator iter = ctx.binsData.comments.iterator();
+            while (iter.hasNext()) {
+                MemoryStats stats = (MemoryStats) iter.next();
+                String level = "Main Mem.";
+                if (stats.cacheLevel == 1) {
+                    level = "L1";
+                } else if (stats.cacheLevel == 2) {
+                    level = "L2";
+                } else if (stats.cacheLevel == 3) {
+                    level = "L3";
                 }
-                writer.println("</div>");
+                writer.println("<tr>");
+                writer.println("<td>" + level + "</td>");
+                writer.println("<td>" + Format.format2d(stats.time / ctx.cpuCount) + "</td>");
+                writer.println("<td>" + Format.format2d(stats.percent_total_time) + "%" + "</td>");
+                writer.println("</tr>");
             }
-            writer.println("<div id=\"linkList\">");
-            writer.println("<div id=\"listmenu\">");                                               //App Characterization
-            writer.println("<h1><span>App Characterization</span></h1>");
+            writer.println("</table>");
+        }
+        int percentMM = (int) (ctx.binsData.timeMM / ctx.binsData.totalTime * 100);
+        if (percentMM > 50) {
+            writer.println("More than " + String.valueOf(percentMM) + "% of time is spent in main memory.<br>");
+            writer.println("Some cache optimizations might help improve performance.<br>");
+        }
+        writer.println("</div>");
+        out.endSection("cache_behavior_overview");
+    }
+
+    private void writeTaskStats(ReportContext ctx, ReportWriter out) {
+        PrintWriter text = out.text;                                                               //task time stats
+        text.println("\nTask Time Stats");
+        text.println("---------------");
+        text.println("Min - " + Format.format2d(ctx.taskData.min));
+        text.println("Max - " + Format.format2d(ctx.taskData.max));
+        text.println("Mean - " + Format.format2d(ctx.taskData.avg));
+        text.println("Standard Deviation - " + Format.format2d(ctx.taskData.standardDeviation));
+        out.endSection("task_stats");
+    }
+
+    private void writeLinks(ReportContext ctx, ReportWriter out) {
+        PrintWriter writer = out.html;
+        writer.println("<div id=\"linkList\">");
+        writer.println("<div id=\"listmenu\">");                                                   //App Characterization
+        writer.println("<h1><span>App Characterization</span></h1>");
+        writer.println("<ul id=\"listmenu\">");
+        if (out.hasSection("per_system_time")) {
+            writer.println("<li><a href=\"#per_system_time\" title=\"Application time, broken down by computation vs. communication for all unclassified HPCMP systems\">Cross-Arch Runtimes</a>&nbsp;</li>");
+        }
+        if (out.hasSection("runtime_trend")) {
+            writer.println("<li><a href=\"#runtime_trend\" title=\"Predicted application time of the previous runs of this test case\">Runtime Trend</a>&nbsp;</li>");
+        }
+        writer.println("<li><a href=\"#message_passing_overview\" title=\"Overall application time, broken down by computation vs. communication\">MPI Overview</a>&nbsp;</li>");
+        if (out.hasSection("message_passing_per_cpu")) {
+            writer.println("<li><a href=\"#message_passing_per_cpu\" title=\"Application time per CPU, broken down by computation vs. communication\">MPI Per-Task</a>&nbsp;</li>");
+        }
+        if (out.hasSection("load_imbalance")) {
+            writer.println("<li><a href=\"#load_imbalance\" title=\"Spread of the time of each event across tasks\">Load Imbalance</a>&nbsp;</li>");
+        }
+        if (out.hasSection("function_time_overview")) {
+            writer.println("<li><a href=\"#function_time_overview\" title=\"Time spent per function\">Function Timing</a>&nbsp;</li>");
+        }
+        if (out.hasSection("cache_behavior_overview")) {
+            writer.println("<li><a href=\"#cache_behavior_overview\" title=\"Application cache behavior\">Data Motion</a>&nbsp;</li>");
+        }
+        writer.println("</ul>");
+        writer.println("</div>");
+        if (ctx.profileData != null) {                                                             //Cross-Arch Analysis
+            writer.println("<div id=\"listmenu\">");
+            writer.println("<h1><span>Cross-Arch Analysis</span></h3>");
             writer.println("<ul id=\"listmenu\">");
-            if (profileData != null) {
-                writer.println("<li><a href=\"#per_system_time\" title=\"Application time, broken down by computation vs. communication for all unclassified HPCMP systems\">Cross-Arch Runtimes</a>&nbsp;</li>");
-            }
-            writer.println("<li><a href=\"#message_passing_overview\" title=\"Overall application time, broken down by computation vs. communication\">MPI Overview</a>&nbsp;</li>");
-            if (ETaskTimeData) {
-                writer.println("<li><a href=\"#message_passing_per_cpu\" title=\"Application time per CPU, broken down by computation vs. communication\">MPI Per-Task</a>&nbsp;</li>");
+            Set set = ctx.profileData.entrySet();
+            Iterator itr = set.iterator();
+            while (itr.hasNext()) {
+                Map.Entry entry = (Map.Entry) itr.next();
+                writer.println("<li><a href=\"\">" + cachedDatabase.getBaseResourceName(((Integer) entry.getKey()).intValue()) + "</a>&nbsp;</li>");
             }
-            if (funcData != null) {
-                writer.println("<li><a href=\"#function_time_overview\" title=\"Time spent per function\">Function Timing</a>&nbsp;</li>");
-            }
-            if (binsData != null) {
-                writer.println("<li><a href=\"#cache_behavior_overview\" title=\"Application cache behavior\">Data Motion</a>&nbsp;</li>");
-            }
-            writer.println("</ul>");
-            writer.println("</div>");
-            if (profileData != null) {                                                             //Cross-Arch Analysis
-                writer.println("<div id=\"listmenu\">");
-                writer.println("<h1><span>Cross-Arch Analysis</span></h3>");
-                writer.println("<ul id=\"listmenu\">");
-                Set set = profileData.entrySet();
-                Iterator itr = set.iterator();
-                while (itr.hasNext()) {
-                    Map.Entry entry = (Map.Entry) itr.next();
-                    writer.println("<li><a href=\"\">" + database.getBaseResourceName(((Integer) entry.getKey()).intValue()) + "</a>&nbsp;</li>");
-                }
-                writer.println("</ul>");
-                writer.println("</div>");
-            }
-            writer.println("<div id=\"listmenu\">");                                               //Other Resources
-            writer.println("<h1><span>Other Resources</span></h3>");
-            writer.println("<ul id=\"listmenu\">");
-            writer.println("<li><a href=\"http://apps.ccac.hpc.mil/PMaC/faq.html/\">FAQ</a>&nbsp;</li>");
-            writer.println("<li><a href=\"http://apps.ccac.hpc.mil/PMaC/faq.html/\">pmac-tools Home</a>&nbsp;</li>");
-            writer.println("<li><a href=\"http://en.wikibooks.org/wiki/Message-Passing_Interface/MPI_function_reference\">MPI Function Interface</a>&nbsp;</li>");
             writer.println("</ul>");
             writer.println("</div>");
-            writer.println("</div>"); //linklist
-            writer.println("</div>"); //container
-            writer.println("</body>");
-            writer.println("</html>");
-            writer.close();
-        } catch (Exception e) {
-            Logger.error("Exception while creating HTML file " + filename + " " + e);
-            throw e;
         }
-        try {                                                                                      //create ETime pie chart
-            DefaultPieDataset pieData = new DefaultPieDataset();
-            Iterator iter = psinsData.etimes.iterator();
-            double other = 100.00;
-            ArrayList events = new ArrayList();
-            while (iter.hasNext()) {
-                Event event = (Event) iter.next();
-                if (event.value >= 1.0) {
-                    pieData.setValue(event.eventType, new Double(event.value));
-                    other -= event.value;
-                    events.add(event.eventType);
-                }
+        writer.println("<div id=\"listmenu\">");                                                   //Other Resources
+        writer.println("<h1><span>Other Resources</span></h3>");
+        writer.println("<ul id=\"listmenu\">");
+        writer.println("<li><a href=\"http://apps.ccac.hpc.mil/PMaC/faq.html/\">FAQ</a>&nbsp;</li>");
+        writer.println("<li><a href=\"http://apps.ccac.hpc.mil/PMaC/faq.html/\">pmac-tools Home</a>&nbsp;</li>");
+        writer.println("<li><a href=\"http://en.wikibooks.org/wiki/Message-Passing_Interface/MPI_function_reference\">MPI Function Interface</a>&nbsp;</li>");
+        writer.println("</ul>");
+        writer.println("</div>");
+        writer.println("</div>"); //linklist
+        writer.println("</div>"); //container
+        writer.println("</body>");
+        writer.println("</html>");
+        out.endSection("links");
+    }
+
+    private void addChart(ChartRenderer renderer, JFreeChart chart, String filename, String kind, int width, int height) {
+        String name = filename + "_" + kind;
+        if (inlineCharts) {
+            renderer.addInline(name, chart, width, height, CHART_DISPLAY_WIDTH, "chart." + kind);
+        } else {
+            renderer.add(chart, imagesDir + name + "." + chartWriter.getExtension(), width, height, "chart." + kind);
+        }
+    }
+
+    private String getChartElement(ChartRenderer renderer, String name) throws Exception {
+        if (inlineCharts) {
+            return renderer.getInline(name);
+        }
+        return "<img src=\"" + imgSrcPath + name + "." + chartWriter.getExtension() + "\" width=\"" + CHART_DISPLAY_WIDTH + "px\">";
+    }
+
+    JFreeChart createETimeChart(ReportContext ctx) {
+        DefaultPieDataset pieData = new DefaultPieDataset();
+        Iterator iter = ctx.psinsData.etimes.iterator();
+        double other = 100.00;
+        ArrayList events = new ArrayList();
+        while (iter.hasNext()) {
+            Event event = (Event) iter.next();
+            if (event.value >= 1.0) {
+                pieData.setValue(event.eventType, new Double(event.value));
+                other -= event.value;
+                events.add(event.eventType);
             }
-            if (other >= 1.0) {
-                pieData.setValue("Other", new Double(other));
-                events.add("Other");
-            }
-            PiePlot plot = new PiePlot(pieData);
-            for (int i = 0; i < events.size(); ++i) {
-                plot.setSectionPaint((String) events.get(i), getEventColor((String) events.get(i)));
-            }
-            plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
-                    NumberFormat.getPercentInstance()));
-            plot.setBackgroundPaint(bgColor);
-            plot.setOutlineVisible(false);
-            plot.setShadowPaint(bgColor);
-            JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
-            chart.setBackgroundPaint(bgColor);
-            ChartRenderingInfo info = new ChartRenderingInfo(new StandardEntityCollection());
-            File pieChart = new File(imagesDir + filename + "_etime_piechart.png");
-            outputFiles.add(imagesDir + filename + "_etime_piechart.png");
-            ChartUtilities.saveChartAsPNG(pieChart, chart, 600, 400, info);
-        } catch (Exception e) {
-            Logger.error("Exception while creating ETime pie chart " + e);
-            throw e;
         }
-        if (ETaskTimeData) {
-            try {                                                                                  //create ETaskTime bar chart
-                DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-                for (int i = 0; i < psinsData.cpuCount; ++i) {
-                    List events = psinsData.taskEventTimes[i];
-                    Iterator iter = events.iterator();
-                    while (iter.hasNext()) {
-                        Event event = (Event) iter.next();
-                        if (event.value / psinsData.totalPredictionTime >= 0.01) {
-                            dataset.addValue(event.value, event.eventType, String.valueOf(i));
-                        }
+        if (other >= 1.0) {
+            pieData.setValue("Other", new Double(other));
+            events.add("Other");
+        }
+        PiePlot plot = new PiePlot(pieData);
+        for (int i = 0; i < events.size(); ++i) {
+            plot.setSectionPaint((String) events.get(i), getEventColor((String) events.get(i)));
+        }
+        plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
+                NumberFormat.getPercentInstance()));
+        plot.setBackgroundPaint(bgColor);
+        plot.setOutlineVisible(false);
+        plot.setShadowPaint(bgColor);
+        JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
+        chart.setBackgroundPaint(bgColor);
+        return chart;
+    }
+
+    JFreeChart createETaskTimeChart(ReportContext ctx) {
+        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        DefaultCategoryDataset totals = null;
+        DefaultIntervalCategoryDataset ranges = null;
+        if (ctx.taskTable.getTaskCount() > ETASK_BIN_THRESHOLD) {                                    //bin tasks so the chart size is bounded
+            TaskEventBins bins = TaskEventBins.create(ctx.taskTable, ETASK_MAX_BINS);
+            totals = new DefaultCategoryDataset();
+            for (int b = 0; b < bins.getBinCount(); ++b) {
+                String label = bins.getLabel(b);
+                for (int e = 0; e < bins.events.length; ++e) {
+                    if (bins.mean[b][e] / ctx.psinsData.totalPredictionTime >= 0.01) {
+                        dataset.addValue(bins.mean[b][e], bins.events[e], label);
                     }
                 }
-                JFreeChart chart = ChartFactory.createStackedBarChart(null, "CPU", "Seconds",
-                        dataset, PlotOrientation.VERTICAL, true, false, false);
-                chart.setBackgroundPaint(bgColor);
-                chart.getLegend().setBorder(0, 0, 0, 0);
-                chart.getLegend().setBackgroundPaint(bgColor);
-                chart.getLegend().setItemPaint(java.awt.Color.white);
-                CategoryPlot plot = (CategoryPlot) chart.getPlot();
-                LegendItemCollection legendItems = plot.getLegendItems();
-                CategoryItemRenderer renderer = plot.getRenderer();
-                for (int i = 0; i < legendItems.getItemCount(); ++i) {
-                    LegendItem legendItem = legendItems.get(i);
-                    renderer.setSeriesPaint(legendItem.getSeriesIndex(), getEventColor(legendItem.getLabel()));
-                }
-                plot.setBackgroundPaint(java.awt.Color.white);
-                plot.setRangeGridlinePaint(java.awt.Color.black);
-                plot.getDomainAxis().setLabelPaint(java.awt.Color.white);
-                plot.getRangeAxis().setLabelPaint(java.awt.Color.white);
-                plot.getRangeAxis().setTickLabelPaint(java.awt.Color.white);
-                plot.getDomainAxis().setAxisLineVisible(false);
-                CategoryAxis domainAxis = plot.getDomainAxis();
-                domainAxis.setTickLabelsVisible(false);
-                domainAxis.setAxisLinePaint(java.awt.Color.black);
-                ChartRenderingInfo info = new ChartRenderingInfo(new StandardEntityCollection());
-                File file = new File(imagesDir + filename + "_etasktime_barchart.png");
-                outputFiles.add(imagesDir + filename + "_etasktime_barchart.png");
-                ChartUtilities.saveChartAsPNG(file, chart, 1200, 800, info);
-            } catch (Exception e) {
-                Logger.error("Exception while creating ETaskTime bar chart " + e);
-                throw e;
-            }
-        }
-        if (funcData != null) {
-            try {                                                                                  //create func time pie chart
-                DefaultPieDataset pieData = new DefaultPieDataset();
-                Iterator iter = funcData.funcTimes.iterator();
-                double other = 0.0;
-                int count = 1;
-                while (iter.hasNext()) {
-                    FuncTime funcTime = (FuncTime) iter.next();
-                    if (count <= NUM_FUNC && !funcTime.name.contentEquals("<others>")) {
-                        pieData.setValue(funcTime.name, new Double(funcTime.time));
-                        ++count;
-                    } else {
-                        other += funcTime.time;
+                totals.addValue(bins.maxTotal[b], "Max Task Time", label);
+                totals.addValue(bins.minTotal[b], "Min Task Time", label);
+            }
+            ranges = createEventRanges(bins, dataset);
+        } else {
+            TaskEventTable table = ctx.taskTable;
+            for (int i = 0; i < table.getTaskCount(); ++i) {
+                for (int e = 0; e < table.getEventCount(); ++e) {
+                    double time = table.getTime(i, e);
+                    if (time / ctx.psinsData.totalPredictionTime >= 0.01) {
+                        dataset.addValue(time, table.getEventName(e), String.valueOf(i));
                     }
                 }
-                if (other >= 0.0) {
-                    pieData.setValue("Other", new Double(other));
-                }
-                PiePlot plot = new PiePlot(pieData);
-                plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
-                        NumberFormat.getPercentInstance()));
-                plot.setBackgroundPaint(bgColor);
-                plot.setOutlineVisible(false);
-                plot.setShadowPaint(bgColor);
-                JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
-                chart.setBackgroundPaint(bgColor);
-                ChartRenderingInfo info = new ChartRenderingInfo(new StandardEntityCollection());
-                File pieChart = new File(imagesDir + filename + "_functime_piechart.png");
-                outputFiles.add(imagesDir + filename + "_functime_piechart.png");
-                ChartUtilities.saveChartAsPNG(pieChart, chart, 600, 400, info);
-            } catch (Exception e) {
-                Logger.error("Exception while creating functime pie chart " + e);
-                throw e;
-            }
-        }
-        if (binsData != null) {
-            try {                                                                                      //create bins data pie chart
-                DefaultPieDataset pieData = new DefaultPieDataset();
-                pieData.setValue("L1 cache", new Double(binsData.timeL1));
-                if (binsData.timeL2 > 0) {
-                    pieData.setValue("L2 cache", new Double(binsData.timeL2));
-                }
-                if (binsData.timeL3 > 0) {
-                    pieData.setValue("L3 cache", new Double(binsData.timeL3));
+            }
+        }
+        JFreeChart chart = ChartFactory.createStackedBarChart(null, "CPU", "Seconds",
+                dataset, PlotOrientation.VERTICAL, true, false, false);
+        chart.setBackgroundPaint(bgColor);
+        chart.getLegend().setBorder(0, 0, 0, 0);
+        chart.getLegend().setBackgroundPaint(bgColor);
+        chart.getLegend().setItemPaint(java.awt.Color.white);
+        CategoryPlot plot = (CategoryPlot) chart.getPlot();
+        CategoryItemRenderer renderer = plot.getRenderer();
+        LegendItemCollection legendItems = renderer.getLegendItems();
+        for (int i = 0; i < legendItems.getItemCount(); ++i) {
+            LegendItem legendItem = legendItems.get(i);
+            renderer.setSeriesPaint(legendItem.getSeriesIndex(), getEventColor(legendItem.getLabel()));
+        }
+        plot.setBackgroundPaint(java.awt.Color.white);
+        plot.setRangeGridlinePaint(java.awt.Color.black);
+        plot.getDomainAxis().setLabelPaint(java.awt.Color.white);
+        plot.getRangeAxis().setLabelPaint(java.awt.Color.white);
+        plot.getRangeAxis().setTickLabelPaint(java.awt.Color.white);
+        plot.getDomainAxis().setAxisLineVisible(false);
+        CategoryAxis domainAxis = plot.getDomainAxis();
+        domainAxis.setTickLabelsVisible(false);
+        domainAxis.setAxisLinePaint(java.awt.Color.black);
+        if (ranges != null) {
+            IntervalBarRenderer intervals = new IntervalBarRenderer();
+            for (int i = 0; i < ranges.getRowCount(); ++i) {
+                intervals.setSeriesPaint(i, getEventColor((String) ranges.getRowKey(i)));
+            }
+            intervals.setDrawBarOutline(true);
+            intervals.setBaseOutlinePaint(java.awt.Color.black);
+            intervals.setBaseSeriesVisibleInLegend(false);
+            intervals.setShadowVisible(false);
+            plot.setDataset(1, ranges);
+            plot.setRenderer(1, intervals);
+        }
+        if (totals != null) {
+            LineAndShapeRenderer lines = new LineAndShapeRenderer(true, false);
+            lines.setSeriesPaint(0, java.awt.Color.black);
+            lines.setSeriesPaint(1, java.awt.Color.gray);
+            plot.setDataset(2, totals);
+            plot.setRenderer(2, lines);
+            plot.setDatasetRenderingOrder(DatasetRenderingOrder.FORWARD);
+        }
+        return chart;
+    }
+
+    // the minimum to maximum time of each charted event in each range of tasks
+    private static DefaultIntervalCategoryDataset createEventRanges(TaskEventBins bins, DefaultCategoryDataset means) {
+        List charted = new ArrayList();
+        for (int e = 0; e < bins.events.length; ++e) {
+            if (means.getRowIndex(bins.events[e]) >= 0) {
+                charted.add(new Integer(e));
+            }
+        }
+        if (charted.isEmpty()) {
+            return null;
+        }
+        Comparable[] seriesKeys = new Comparable[charted.size()];
+        Comparable[] categoryKeys = new Comparable[bins.getBinCount()];
+        Number[][] starts = new Number[charted.size()][bins.getBinCount()];
+        Number[][] ends = new Number[charted.size()][bins.getBinCount()];
+        for (int b = 0; b < bins.getBinCount(); ++b) {
+            categoryKeys[b] = bins.getLabel(b);
+        }
+        for (int i = 0; i < charted.size(); ++i) {
+            int e = ((Integer) charted.get(i)).intValue();
+            seriesKeys[i] = bins.events[e];
+            for (int b = 0; b < bins.getBinCount(); ++b) {
+                if (means.getColumnIndex(categoryKeys[b]) >= 0 && means.getValue(seriesKeys[i], categoryKeys[b]) != null) {
+                    starts[i][b] = new Double(bins.min[b][e]);                                     //only where the mean is charted
+                    ends[i][b] = new Double(bins.max[b][e]);
                 }
-                pieData.setValue("Main Memory", new Double(binsData.timeMM));
-                PiePlot plot = new PiePlot(pieData);
-                plot.setBackgroundPaint(bgColor);
-                plot.setOutlineVisible(false);
-                plot.setShadowPaint(bgColor);
-                plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
-                        NumberFormat.getPercentInstance()));
-                JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
-                chart.setBackgroundPaint(bgColor);
-                ChartRenderingInfo info = new ChartRenderingInfo(new StandardEntityCollection());
-                File pieChart = new File(imagesDir + filename + "_hitrates_piechart.png");
-                outputFiles.add(imagesDir + filename + "_hitrates_piechart.png");
-                ChartUtilities.saveChartAsPNG(pieChart, chart, 600, 400, info);
-            } catch (Exception e) {
-                Logger.error("Exception while creating hit rate pie chart " + e);
-                throw e;
             }
         }
-        return true;
+        return new DefaultIntervalCategoryDataset(seriesKeys, categoryKeys, starts, ends);
     }
 
-    private void setEmailBody() {
-        body = "";
-        if (application != null) {
-            body += ("Application: " + application + "\n");
+    JFreeChart createTrendChart(ReportContext ctx) {
+        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        Iterator itr = ctx.trends.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry entry = (Map.Entry) itr.next();
+            TrendStore.Trend trend = (TrendStore.Trend) entry.getValue();
+            String machine = cachedDatabase.getMachineLabel(((Integer) entry.getKey()).intValue());
+            for (int i = 0; i < trend.history.length; ++i) {
+                dataset.addValue(trend.history[i].predictionTime, machine, trend.history[i].run);
+            }
+        }
+        JFreeChart chart = ChartFactory.createLineChart(null, "Run", "Seconds",
+                dataset, PlotOrientation.VERTICAL, true, false, false);
+        chart.setBackgroundPaint(bgColor);
+        chart.getLegend().setBorder(0, 0, 0, 0);
+        chart.getLegend().setBackgroundPaint(bgColor);
+        chart.getLegend().setItemPaint(java.awt.Color.white);
+        CategoryPlot plot = (CategoryPlot) chart.getPlot();
+        ((LineAndShapeRenderer) plot.getRenderer()).setBaseShapesVisible(true);
+        plot.setBackgroundPaint(java.awt.Color.white);
+        plot.setRangeGridlinePaint(java.awt.Color.black);
+        plot.getDomainAxis().setLabelPaint(java.awt.Color.white);
+        plot.getDomainAxis().setTickLabelPaint(java.awt.Color.white);
+        plot.getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.UP_45);
+        plot.getRangeAxis().setLabelPaint(java.awt.Color.white);
+        plot.getRangeAxis().setTickLabelPaint(java.awt.Color.white);
+        return chart;
+    }
+
+    JFreeChart createFuncTimeChart(ReportContext ctx) {
+        DefaultPieDataset pieData = new DefaultPieDataset();
+        Iterator iter = ctx.funcData.funcTimes.iterator();
+        double other = 0.0;
+        int count = 1;
+        while (iter.hasNext()) {
+            FuncTime funcTime = (FuncTime) iter.next();
+            if (count <= NUM_FUNC && !funcTime.name.contentEquals("<others>")) {
+                pieData.setValue(funcTime.name, new Double(funcTime.time));
+                ++count;
+            } else {
+                other += funcTime.time;
+            }
+        }
+        if (other >= 0.0) {
+            pieData.setValue("Other", new Double(other));
+        }
+        PiePlot plot = new PiePlot(pieData);
+        plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
+                NumberFormat.getPercentInstance()));
+        plot.setBackgroundPaint(bgColor);
+        plot.setOutlineVisible(false);
+        plot.setShadowPaint(bgColor);
+        JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
+        chart.setBackgroundPaint(bgColor);
+        return chart;
+    }
+
+    JFreeChart createHitRateChart(ReportContext ctx) {
+        DefaultPieDataset pieData = new DefaultPieDataset();
+        pieData.setValue("L1 cache", new Double(ctx.binsData.timeL1));
+        if (ctx.binsData.timeL2 > 0) {
+            pieData.setValue("L2 cache", new Double(ctx.binsData.timeL2));
+        }
+        if (ctx.binsData.timeL3 > 0) {
+            pieData.setValue("L3 cache", new Double(ctx.binsData.timeL3));
+        }
+        pieData.setValue("Main Memory", new Double(ctx.binsData.timeMM));
+        PiePlot plot = new PiePlot(pieData);
+        plot.setBackgroundPaint(bgColor);
+        plot.setOutlineVisible(false);
+        plot.setShadowPaint(bgColor);
+        plot.setLabelGenerator(new StandardPieSectionLabelGenerator("{0} {2}", NumberFormat.getNumberInstance(),
+                NumberFormat.getPercentInstance()));
+        JFreeChart chart = new JFreeChart(null, JFreeChart.DEFAULT_TITLE_FONT, plot, false);
+        chart.setBackgroundPaint(bgColor);
+        return chart;
+    }
+
+    private void setEmailBody(ReportContext ctx) {
+        ctx.body = "";
+        if (ctx.application != null) {
+            ctx.body += ("Application: " + ctx.application + "\n");
         }
-        if (dataSet != null) {
-            body += ("Data Set: " + dataSet + "\n");
+        if (ctx.dataSet != null) {
+            ctx.body += ("Data Set: " + ctx.dataSet + "\n");
         }
-        if (cpuCount != 0) {
-            body += ("CPU Count: " + String.valueOf(cpuCount) + "\n");
+        if (ctx.cpuCount != 0) {
+            ctx.body += ("CPU Count: " + String.valueOf(ctx.cpuCount) + "\n");
         }
-        if (simulatedSystem != null) {
-            body += ("Simulated System: " + simulatedSystem + "\n");
+        if (ctx.simulatedSystem != null) {
+            ctx.body += ("Simulated System: " + ctx.simulatedSystem + "\n");
         }
     }
 
     private java.awt.Color getEventColor(String event) {
-        if (event.equals("CPUTime")) {
-            return new Color(255, 0, 0);     //red
-        } else if (event.equals("MPI_Allgather")) {
-            return new Color(255, 127, 80);  //coral
-        } else if (event.equals("MPI_Allgatherv")) {
-            return new Color(160, 82, 45);   //sienna
-        } else if (event.equals("MPI_Allreduce")) {
-            return new Color(0, 255, 0);     //lime
-        } else if (event.equals("MPI_Alltoall")) {
-            return new Color(255, 165, 0);   //orange
-        } else if (event.equals("MPI_Alltoallv")) {
-            return new Color(165, 42, 42);   //brown
-        } else if (event.equals("MPI_Barrier")) {
-            return new Color(255, 0, 255);   //fuchsia
-        } else if (event.equals("MPI_Bcast")) {
-            return new Color(255, 255, 0);   //yellow
-        } else if (event.equals("MPI_Bsend")) {
-            return new Color(0, 128, 0);     //green
-        } else if (event.equals("MPI_Bsend_init")) {
-            return new Color(135, 206, 235); //sky blue
-        } else if (event.equals("MPI_Comm_create")) {
-            return new Color(238, 130, 238); //violet
-        } else if (event.equals("MPI_Comm_dup")) {
-            return new Color(75, 0, 130);    //indigo
-        } else if (event.equals("MPI_Comm_free")) {
-            return new Color(64, 224, 208);  //turquoise
-        } else if (event.equals("MPI_Comm_split")) {
-            return new Color(46, 139, 87);   //sea green
-        } else if (event.equals("MPI_Finalize")) {
-            return new Color(128, 128, 0);   //olive
-        } else if (event.equals("MPI_Gather")) {
-            return new Color(220, 20, 60);   //crimson
-        } else if (event.equals("MPI_Gatherv")) {
-            return new Color(210, 180, 140); //tan
-        } else if (event.equals("MPI_Init")) {
-            return new Color(0, 0, 0);       //black
-        } else if (event.equals("MPI_Ibsend")) {
-            return new Color(255, 105, 180); //hot pink
-        } else if (event.equals("MPI_Irecv")) {
-            return new Color(192, 192, 192); //silver
-        } else if (event.equals("MPI_Irsend")) {
-            return new Color(221, 160, 221); //plum
-        } else if (event.equals("MPI_Isend")) {
-            return new Color(127, 255, 0);   //chartreuse
-        } else if (event.equals("MPI_Issend")) {
-            return new Color(0, 255, 255);   //aqua
-        } else if (event.equals("MPI_Pcontrol")) {
-            return new Color(176, 224, 230); //powder blue
-        } else if (event.equals("MPI_Recv")) {
-            return new Color(0, 128, 128);   //teal
-        } else if (event.equals("MPI_Recv_init")) {
-            return new Color(153, 102, 204); //amethyst
-        } else if (event.equals("MPI_Reduce")) {
-            return new Color(0, 0, 128);     //navy
-        } else if (event.equals("MPI_Reduce_scatter")) {
-            return new Color(230, 230, 250); //lavender
-        } else if (event.equals("MPI_Request_free")) {
-            return new Color(106, 90, 205);  //slate blue
-        } else if (event.equals("MPI_Rsend")) {
-            return new Color(240, 230, 140); //khaki
-        } else if (event.equals("MPI_Rsend_init")) {
-            return new Color(0, 100, 0);     //dark green
-        } else if (event.equals("MPI_Scan")) {
-            return new Color(250, 128, 114); //salmon
-        } else if (event.equals("MPI_Scatter")) {
-            return new Color(255, 192, 203); //pink
-        } else if (event.equals("MPI_Scatterv")) {
-            return new Color(210, 105, 30);  //chocolate
-        } else if (event.equals("MPI_Ssend")) {
-            return new Color(128, 0, 128);   //purple
-        } else if (event.equals("MPI_Ssend_init")) {
-            return new Color(255, 215, 0);   //gold
-        } else if (event.equals("MPI_Send")) {
-            return new Color(128, 128, 128); //gray
-        } else if (event.equals("MPI_Send_init")) {
-            return new Color(189, 183, 107); //dark khaki
-        } else if (event.equals("MPI_Sendrecv")) {
-            return new Color(112, 128, 144); //slate gray
-        } else if (event.equals("MPI_Start")) {
-            return new Color(127, 255, 212); //aquamarine
-        } else if (event.equals("MPI_Startall")) {
-            return new Color(144, 238, 144); //light green
-        } else if (event.equals("MPI_Wait")) {
-            return new Color(245, 222, 179); //wheat
-        } else if (event.equals("MPI_Waitall")) {
-            return new Color(128, 0, 0);     //maroon
-        } else if (event.equals("MPI_Waitany")) {
-            return new Color(0, 0, 255);     //blue
-        } else if (event.equals("MPI_Waitsome")) {
-            return new Color(218, 165, 32);  //goldenrod
-        } else if (event.equals("Other")) {
-            return new Color(255, 255, 255); //white
-        } else {
-            Logger.warn("No Color has been defined for " + event);
-            return new Color(255, 255, 255);
-        }
+        return eventColors.get(event);
     }
 
     public static void main(String args[]) {
@@ -1077,8 +1941,32 @@ public class Reporter {
             ConfigSettings.readConfigFile();
             CommandLineParser commandLineParser = new CommandLineParser(args);
             Reporter reporter = new Reporter(commandLineParser.dir, commandLineParser.email, commandLineParser.saveOutput);
+            reporter.setThreads(commandLineParser.threads);
+            reporter.setUseCache(!commandLineParser.noCache);
+            reporter.setDigest(commandLineParser.digest);
+            reporter.setZipAttachments(commandLineParser.zip);
+            reporter.setForce(commandLineParser.force);
+            reporter.setMetricsFile(commandLineParser.metricsFile);
+            reporter.setMetricsPort(commandLineParser.metricsPort);
+            if (!reporter.setChartFormat(commandLineParser.chartFormat)) {
+                Logger.error("--chart_format must be png, svg or inline");
+            }
+            if (commandLineParser.trendStore != null && !reporter.setTrendStore(commandLineParser.trendStore)) {
+                Logger.error("Cannot open --trend_store " + commandLineParser.trendStore);
+            }
+            if (commandLineParser.eventColors != null && !reporter.setEventColors(commandLineParser.eventColors)) {
+                Logger.error("Cannot read --event_colors " + commandLineParser.eventColors);
+            }
             boolean success;
-            success = commandLineParser.profiles != null ? reporter.run(commandLineParser.profiles) : reporter.run(commandLineParser.file);
+            if (commandLineParser.compareDir != null) {
+                success = reporter.compare(commandLineParser.compareDir, commandLineParser.threshold, commandLineParser.shareThreshold);
+            } else if (commandLineParser.watch) {
+                success = reporter.watch();
+            } else if (commandLineParser.port != 0) {
+                success = reporter.serve(commandLineParser.port);
+            } else {
+                success = commandLineParser.profiles != null ? reporter.run(commandLineParser.profiles) : reporter.run(commandLineParser.file);
+            }
             if (success) {
                 Logger.inform("\n*** DONE *** SUCCESS *** SUCCESS *** SUCCESS *****************\n");
             }
@@ -1096,13 +1984,43 @@ class CommandLineParser implements CommandLineInterface {
     public String email = "";
     public int[] profiles = null;
     public boolean saveOutput;
+    public int threads = 1;
+    public boolean noCache;
+    public boolean digest;
+    public boolean zip;
+    public boolean watch;
+    public boolean force;
+    public int port = 0;
+    public String chartFormat = "png";
+    public String metricsFile = null;
+    public int metricsPort = 0;
+    public String eventColors = null;
+    public String trendStore = null;
+    public String compareDir = null;
+    public double threshold = ReportComparison.DEFAULT_THRESHOLD;
+    public double shareThreshold = ReportComparison.DEFAULT_SHARE_THRESHOLD;
     static final String[] ALL_OPTIONS = {
         "help:?",
         "dir:s",
         "file:s",
         "email:s",
         "profiles:s",
-        "save_output:?"
+        "save_output:?",
+        "threads:s",
+        "no_cache:?",
+        "digest:?",
+        "zip:?",
+        "watch:?",
+        "force:?",
+        "serve:s",
+        "chart_format:s",
+        "metrics:s",
+        "metrics_port:s",
+        "event_colors:s",
+        "trend_store:s",
+        "compare:s",
+        "threshold:s",
+        "share_threshold:s"
     };
     static final String helpString =
             "[Basic Params]:\n"
@@ -1113,14 +2031,44 @@ class CommandLineParser implements CommandLineInterface {
             + "                                          default is to process all\n"
             + "    --email          <email addresses>  : comma delimited email recipients for report\n"
             + "    --profiles       <profiles>         : comma delimited machine profiles"
-            + "    --save_output                       : output files are never deleted";
+            + "    --save_output                       : output files are never deleted\n"
+            + "    --threads        <count>            : number of reports generated concurrently\n"
+            + "                                          default is 1\n"
+            + "    --no_cache                          : always parse text files; do not read or write\n"
+            + "                                          the binary cache of parsed results\n"
+            + "    --digest                            : send one email per recipient for all reports\n"
+            + "                                          default is one email per report\n"
+            + "    --zip                               : send report files as a single zip attachment\n"
+            + "    --watch                             : keep running and report on .psinsout files as\n"
+            + "                                          they are written to the directory\n"
+            + "    --force                             : generate reports even if their inputs have not\n"
+            + "                                          changed since the last run\n"
+            + "    --serve          <port>             : serve reports over HTTP on localhost, generating\n"
+            + "                                          each one when it is first requested\n"
+            + "    --chart_format   <png|svg|inline>   : format of the report charts; inline embeds svg\n"
+            + "                                          in the HTML file. default is png\n"
+            + "    --metrics        <file>             : write timers and counters of each run to a file\n"
+            + "                                          CSV if the name ends with .csv, JSON otherwise\n"
+            + "    --metrics_port   <port>             : with --watch, serve metrics as Prometheus text at\n"
+            + "                                          http://localhost:<port>/metrics\n"
+            + "    --event_colors   <file>             : colors of chart events, one 'event r g b' or\n"
+            + "                                          'event #rrggbb' per line; extends the defaults\n"
+            + "    --trend_store    <dir>              : record predicted runtimes in a local store and\n"
+            + "                                          compare each run with the previous ones\n"
+            + "    --compare        <dirA> <dirB>      : compare the runs in dirB with the same runs in\n"
+            + "                                          dirA; writes psins_compare.json and .html to dirB\n"
+            + "                                          and nothing else to either directory\n"
+            + "    --threshold      <percent>          : with --compare, change of a time that is reported\n"
+            + "                                          default is 5\n"
+            + "    --share_threshold <points>          : with --compare, change of a share of time in\n"
+            + "                                          percentage points that is reported. default is 1";
 
     public CommandLineParser(String argv[]) {
         optionParser = new OptionParser(ALL_OPTIONS, this);
         if (argv.length < 1) {
             optionParser.printUsage("");
         }
-        optionParser.parse(argv);
+        optionParser.parse(getCompareArgs(argv));
         if (optionParser.isHelp()) {
             optionParser.printUsage("");
         }
@@ -1131,6 +2079,33 @@ class CommandLineParser implements CommandLineInterface {
         file = (String) optionParser.getValue("file");
         email = (String) optionParser.getValue("email");
         saveOutput = optionParser.getValue("save_output") != null ? true : false;
+        noCache = optionParser.getValue("no_cache") != null ? true : false;
+        digest = optionParser.getValue("digest") != null ? true : false;
+        zip = optionParser.getValue("zip") != null ? true : false;
+        watch = optionParser.getValue("watch") != null ? true : false;
+        force = optionParser.getValue("force") != null ? true : false;
+        if (optionParser.getValue("chart_format") != null) {
+            chartFormat = (String) optionParser.getValue("chart_format");
+        }
+        metricsFile = (String) optionParser.getValue("metrics");
+        eventColors = (String) optionParser.getValue("event_colors");
+        trendStore = (String) optionParser.getValue("trend_store");
+        compareDir = (String) optionParser.getValue("compare");
+        if (optionParser.getValue("threshold") != null) {
+            threshold = Double.parseDouble((String) optionParser.getValue("threshold"));
+        }
+        if (optionParser.getValue("share_threshold") != null) {
+            shareThreshold = Double.parseDouble((String) optionParser.getValue("share_threshold"));
+        }
+        if (optionParser.getValue("metrics_port") != null) {
+            metricsPort = Integer.parseInt((String) optionParser.getValue("metrics_port"));
+        }
+        if (optionParser.getValue("serve") != null) {
+            port = Integer.parseInt((String) optionParser.getValue("serve"));
+        }
+        if (optionParser.getValue("threads") != null) {
+            threads = Integer.parseInt((String) optionParser.getValue("threads"));
+        }
         if (optionParser.getValue("profiles") != null) {
             String[] tmp = ((String) optionParser.getValue("profiles")).split(",");
             profiles = new int[tmp.length];
@@ -1140,6 +2115,22 @@ class CommandLineParser implements CommandLineInterface {
         }
     }
 
+    // --compare takes two directories; the first is passed on as --dir
+    static String[] getCompareArgs(String argv[]) {
+        List args = new ArrayList(Arrays.asList(argv));
+        int i = args.indexOf("--compare");
+        if (i >= 0 && i + 2 < args.size() && !((String) args.get(i + 2)).startsWith("--")) {
+            if (args.contains("--dir")) {
+                Logger.error("--compare <dirA> <dirB> cannot be combined with --dir");
+                return argv;
+            }
+            String dirA = (String) args.remove(i + 1);
+            args.add(0, "--dir");
+            args.add(1, dirA);
+        }
+        return (String[]) args.toArray(new String[args.size()]);
+    }
+
     public boolean verifyValues(HashMap values) {
         dir = (String) values.get("dir");
         if (dir == null) {
@@ -0,0 +1,391 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Binary cache of parsed PSiNS results. Each cache file is written next to
+ * the text file it was parsed from and records the path, size and
+ * modification time of that file. A cache file is read through a memory
+ * mapped buffer; if it is stale or cannot be read the load methods return
+ * null and the caller falls back to the text parsers. Every length and count
+ * read from a cache file is checked against the bytes left in it before
+ * anything is allocated, so a corrupt file cannot exhaust the heap.
+ */
+public class ResultCache {
+
+    static final int MAGIC = 0x50534e43;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".rcache";
+    static final int PSINS = 1;
+    static final int BINS = 2;
+    static final int FUNC = 3;
+    static final int TASK = 4;
+    static boolean writeWarned = false;
+
+    /**
+     * Load the cached contents of a .psinsout file
+     * @param source Path to the .psinsout file
+     * @return PsinsResult The cached result or null if there is no valid cache
+     */
+    public static PsinsResult loadPsins(String source) {
+        ByteBuffer buffer = open(source, PSINS);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            int cpuCount = buffer.getInt();
+            if (cpuCount < 0) {
+                throw new IOException("corrupt cpu count " + cpuCount);
+            }
+            PsinsData data = new PsinsData(cpuCount);
+            data.totalPredictionTime = buffer.getDouble();
+            data.totalCommunicationTime = buffer.getDouble();
+            data.totalComputationTime = buffer.getDouble();
+            int count = getCount(buffer, 12);
+            for (int i = 0; i < count; ++i) {
+                String eventType = getString(buffer);
+                data.etimes.add(new Event(eventType, buffer.getDouble()));
+            }
+            count = getCount(buffer, 24);
+            for (int i = 0; i < count; ++i) {
+                CommSize commSize = new CommSize();
+                String eventType = getString(buffer);
+                commSize.totalBytes = buffer.getLong();
+                commSize.count = buffer.getInt();
+                commSize.avgBytes = buffer.getDouble();
+                data.commSizes.put(eventType, commSize);
+            }
+            count = getCount(buffer, 4);
+            for (int i = 0; i < count; ++i) {
+                data.eTaskTimeComments.add(getString(buffer));
+            }
+            TaskEventTable tasks = null;
+            if (buffer.get() != 0) {
+                String[] events = new String[getCount(buffer, 4)];
+                for (int i = 0; i < events.length; ++i) {
+                    events[i] = getString(buffer);
+                }
+                int taskCount = buffer.getInt();
+                if (taskCount < 0 || (long) taskCount * events.length * 8 > buffer.remaining()) {
+                    throw new IOException("corrupt task count " + taskCount);
+                }
+                double[] times = new double[taskCount * events.length];
+                buffer.asDoubleBuffer().get(times);
+                tasks = new TaskEventTable(events, taskCount, times);
+            }
+            return new PsinsResult(data, tasks);
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable cache for " + source + " " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the cached contents of a .bins file
+     * @param source Path to the .bins file
+     * @return BinsData The cached data or null if there is no valid cache
+     */
+    public static BinsData loadBins(String source) {
+        ByteBuffer buffer = open(source, BINS);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            BinsData data = new BinsData();
+            data.timeL1 = buffer.getDouble();
+            data.timeL2 = buffer.getDouble();
+            data.timeL3 = buffer.getDouble();
+            data.timeMM = buffer.getDouble();
+            data.totalTime = buffer.getDouble();
+            int count = getCount(buffer, 20);
+            for (int i = 0; i < count; ++i) {
+                MemoryStats stats = new MemoryStats();
+                stats.cacheLevel = buffer.getInt();
+                stats.time = buffer.getDouble();
+                stats.percent_total_time = buffer.getDouble();
+                data.comments.add(stats);
+            }
+            return data;
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable cache for " + source + " " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the cached contents of a .func file
+     * @param source Path to the .func file
+     * @return FuncData The cached data or null if there is no valid cache
+     */
+    public static FuncData loadFunc(String source) {
+        ByteBuffer buffer = open(source, FUNC);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            FuncData data = new FuncData();
+            data.cachelevels = buffer.getInt();
+            int count = getCount(buffer, 16);
+            for (int i = 0; i < count; ++i) {
+                FuncTime func = new FuncTime();
+                func.name = getString(buffer);
+                func.time = buffer.getDouble();
+                int rates = getCount(buffer, 8);
+                for (int j = 0; j < rates; ++j) {
+                    func.hitRates.add(new Double(buffer.getDouble()));
+                }
+                data.funcTimes.add(func);
+            }
+            count = getCount(buffer, 4);
+            for (int i = 0; i < count; ++i) {
+                data.funcTimeComments.add(getString(buffer));
+            }
+            return data;
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable cache for " + source + " " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the cached contents of a .task file
+     * @param source Path to the .task file
+     * @return TaskData The cached data or null if there is no valid cache
+     */
+    public static TaskData loadTask(String source) {
+        ByteBuffer buffer = open(source, TASK);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            TaskData data = new TaskData();
+            data.min = buffer.getDouble();
+            data.max = buffer.getDouble();
+            data.avg = buffer.getDouble();
+            data.standardDeviation = buffer.getDouble();
+            return data;
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable cache for " + source + " " + e);
+            return null;
+        }
+    }
+
+    public static void savePsins(String source, PsinsResult result) {
+        try {
+            PsinsData data = result.data;
+            DataOutputStream out = create(source, PSINS);
+            out.writeInt(data.cpuCount);
+            out.writeDouble(data.totalPredictionTime);
+            out.writeDouble(data.totalCommunicationTime);
+            out.writeDouble(data.totalComputationTime);
+            out.writeInt(data.etimes.size());
+            Iterator iter = data.etimes.iterator();
+            while (iter.hasNext()) {
+                Event event = (Event) iter.next();
+                putString(out, event.eventType);
+                out.writeDouble(event.value);
+            }
+            out.writeInt(data.commSizes.size());
+            iter = data.commSizes.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                CommSize commSize = (CommSize) entry.getValue();
+                putString(out, (String) entry.getKey());
+                out.writeLong(commSize.totalBytes);
+                out.writeInt(commSize.count);
+                out.writeDouble(commSize.avgBytes);
+            }
+            putStrings(out, data.eTaskTimeComments);
+            TaskEventTable tasks = result.tasks;
+            out.writeByte(tasks != null ? 1 : 0);
+            if (tasks != null) {
+                out.writeInt(tasks.events.length);
+                for (int i = 0; i < tasks.events.length; ++i) {
+                    putString(out, tasks.events[i]);
+                }
+                out.writeInt(tasks.taskCount);
+                for (int i = 0; i < tasks.times.length; ++i) {
+                    out.writeDouble(tasks.times[i]);
+                }
+            }
+            commit(source, out);
+        } catch (Exception e) {
+            warnWrite(source, e);
+        }
+    }
+
+    public static void saveBins(String source, BinsData data) {
+        try {
+            DataOutputStream out = create(source, BINS);
+            out.writeDouble(data.timeL1);
+            out.writeDouble(data.timeL2);
+            out.writeDouble(data.timeL3);
+            out.writeDouble(data.timeMM);
+            out.writeDouble(data.totalTime);
+            out.writeInt(data.comments.size());
+            Iterator iter = data.comments.iterator();
+            while (iter.hasNext()) {
+                MemoryStats stats = (MemoryStats) iter.next();
+                out.writeInt(stats.cacheLevel);
+                out.writeDouble(stats.time);
+                out.writeDouble(stats.percent_total_time);
+            }
+            commit(source, out);
+        } catch (Exception e) {
+            warnWrite(source, e);
+        }
+    }
+
+    public static void saveFunc(String source, FuncData data) {
+        try {
+            DataOutputStream out = create(source, FUNC);
+            out.writeInt(data.cachelevels);
+            out.writeInt(data.funcTimes.size());
+            Iterator iter = data.funcTimes.iterator();
+            while (iter.hasNext()) {
+                FuncTime func = (FuncTime) iter.next();
+                putString(out, func.name);
+                out.writeDouble(func.time);
+                out.writeInt(func.hitRates.size());
+                Iterator itr = func.hitRates.iterator();
+                while (itr.hasNext()) {
+                    out.writeDouble(((Double) itr.next()).doubleValue());
+                }
+            }
+            putStrings(out, data.funcTimeComments);
+            commit(source, out);
+        } catch (Exception e) {
+            warnWrite(source, e);
+        }
+    }
+
+    public static void saveTask(String source, TaskData data) {
+        try {
+            DataOutputStream out = create(source, TASK);
+            out.writeDouble(data.min);
+            out.writeDouble(data.max);
+            out.writeDouble(data.avg);
+            out.writeDouble(data.standardDeviation);
+            commit(source, out);
+        } catch (Exception e) {
+            warnWrite(source, e);
+        }
+    }
+
+    private static ByteBuffer open(String source, int kind) {
+        File file = new File(source + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        File sourceFile = new File(source);
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != kind) {
+                    return null;
+                }
+                if (!getString(buffer).equals(sourceFile.getAbsolutePath())
+                        || buffer.getLong() != sourceFile.length()
+                        || buffer.getLong() != sourceFile.lastModified()) {
+                    return null;
+                }
+                return buffer;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            ReportContext.warnCurrent("Ignoring unreadable cache for " + source + " " + e);
+            return null;
+        }
+    }
+
+    private static DataOutputStream create(String source, int kind) throws IOException {
+        File sourceFile = new File(source);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath(source))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(kind);
+        putString(out, sourceFile.getAbsolutePath());
+        out.writeLong(sourceFile.length());
+        out.writeLong(sourceFile.lastModified());
+        return out;
+    }
+
+    private static void commit(String source, DataOutputStream out) throws IOException {
+        out.close();
+        File file = new File(source + SUFFIX);
+        file.delete();
+        if (!new File(tempPath(source)).renameTo(file)) {
+            throw new IOException("unable to rename " + tempPath(source));
+        }
+    }
+
+    private static String tempPath(String source) {
+        return source + SUFFIX + "." + String.valueOf(Thread.currentThread().getId());
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void putStrings(DataOutputStream out, Collection values) throws IOException {
+        out.writeInt(values.size());
+        Iterator iter = values.iterator();
+        while (iter.hasNext()) {
+            putString(out, String.valueOf(iter.next()));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[getCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    // a count of entries of at least minBytes each, which must fit in what is left of the buffer
+    private static int getCount(ByteBuffer buffer, int minBytes) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * minBytes > buffer.remaining()) {
+            throw new IOException("corrupt count " + count + " at offset " + (buffer.position() - 4));
+        }
+        return count;
+    }
+
+    private static synchronized void warnWrite(String source, Exception e) {
+        new File(tempPath(source)).delete();
+        if (!writeWarned) {
+            ReportContext.warnCurrent("Unable to write cache for " + source + " " + e);
+            writeWarned = true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Index of the stats files (.bins, .func and .task) in a stats directory.
+ * Stats files are named sysid<cache sysid>_<...>_<base resource>_<memory pidx>.<kind>
+ * and the index is keyed on those four parts, so the directory is listed
+ * once and each lookup takes constant time.
+ */
+public class StatsIndex {
+
+    static final String[] KINDS = {"bins", "func", "task"};
+    HashMap files = new HashMap();
+    HashMap candidates = new HashMap();
+    int fileCount = 0;
+
+    /**
+     * Build the index for a stats directory
+     * @param dir Path to the stats directory
+     * @return StatsIndex The index or null if the directory does not exist
+     */
+    public static StatsIndex build(String dir) {
+        File[] list = new File(dir).listFiles();
+        if (list == null) {
+            return null;
+        }
+        StatsIndex index = new StatsIndex();
+        for (int i = 0; i < list.length; ++i) {
+            if (list[i].isFile()) {
+                ++index.fileCount;
+                index.add(list[i].getName());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the first stats file of a kind for a machine profile
+     * @param cacheSysId Cache sysid of the machine profile
+     * @param baseResource Base resource as formatted by Format.BR
+     * @param memoryPIdx Memory profile index as formatted by Format.MP
+     * @param kind One of bins, func or task
+     * @return String Name of the file or null if there is none
+     */
+    public String getFile(int cacheSysId, String baseResource, String memoryPIdx, String kind) {
+        String filename = (String) files.get(key(String.valueOf(cacheSysId), baseResource, memoryPIdx, kind));
+        if (filename != null) {
+            return filename;
+        }
+        List names = (List) candidates.get(String.valueOf(cacheSysId) + "." + kind);           //base resource or memory pidx containing '_'
+        if (names != null) {
+            String fileEnd = "_" + baseResource + "_" + memoryPIdx + "." + kind;
+            for (int i = 0; i < names.size(); ++i) {
+                if (((String) names.get(i)).endsWith(fileEnd)) {
+                    return (String) names.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    private void add(String filename) {
+        int dot = filename.lastIndexOf('.');
+        if (!filename.startsWith("sysid") || dot < 0) {
+            return;
+        }
+        String kind = filename.substring(dot + 1);
+        if (!Arrays.asList(KINDS).contains(kind)) {
+            return;
+        }
+        int sysidEnd = filename.indexOf('_');
+        if (sysidEnd < 0) {
+            return;
+        }
+        String cacheSysId = filename.substring("sysid".length(), sysidEnd);
+        String candidateKey = cacheSysId + "." + kind;
+        List names = (List) candidates.get(candidateKey);
+        if (names == null) {
+            names = new ArrayList();
+            candidates.put(candidateKey, names);
+        }
+        names.add(filename);
+        String stem = filename.substring(0, dot);
+        int mpStart = stem.lastIndexOf('_');
+        int brStart = mpStart > sysidEnd ? stem.lastIndexOf('_', mpStart - 1) : -1;
+        if (brStart < sysidEnd) {
+            return;
+        }
+        String key = key(cacheSysId, stem.substring(brStart + 1, mpStart), stem.substring(mpStart + 1), kind);
+        if (!files.containsKey(key)) {
+            files.put(key, filename);
+        }
+    }
+
+    private static String key(String cacheSysId, String baseResource, String memoryPIdx, String kind) {
+        return cacheSysId + "_" + baseResource + "_" + memoryPIdx + "." + kind;
+    }
+}
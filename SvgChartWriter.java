@@ -0,0 +1,76 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.awt.Rectangle;
+import java.io.*;
+
+import org.jfree.chart.*;
+import org.jfree.graphics2d.svg.SVGGraphics2D;
+
+/**
+ * Writes charts as SVG using JFreeSVG. Drawing to SVG skips rasterization
+ * and compression, and the output is usually a fraction of the size of the
+ * PNG. A viewBox is added so the image scales to the width it is shown at.
+ */
+class SvgChartWriter implements ChartWriter {
+
+    public String getExtension() {
+        return "svg";
+    }
+
+    public void write(JFreeChart chart, OutputStream out, int width, int height) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        writer.write(addViewBox(draw(chart, width, height).getSVGDocument(), width, height));
+        writer.flush();
+    }
+
+    /**
+     * Get a chart as an svg element which can be embedded in an HTML page
+     * @param displayWidth Width at which the element is shown in pixels
+     * @return String The svg element
+     */
+    String getElement(JFreeChart chart, int width, int height, int displayWidth) {
+        String element = addViewBox(draw(chart, width, height).getSVGElement(), width, height);
+        int displayHeight = height * displayWidth / width;
+        return element.replaceFirst("width=\"" + width + "\" height=\"" + height + "\"",
+                "width=\"" + displayWidth + "\" height=\"" + displayHeight + "\"");
+    }
+
+    private SVGGraphics2D draw(JFreeChart chart, int width, int height) {
+        SVGGraphics2D graphics = new SVGGraphics2D(width, height);
+        chart.draw(graphics, new Rectangle(0, 0, width, height));
+        return graphics;
+    }
+
+    private static String addViewBox(String svg, int width, int height) {
+        int start = svg.indexOf("<svg ");
+        int end = svg.indexOf('>', start);
+        if (start == -1 || end == -1 || svg.substring(start, end).indexOf("viewBox") != -1) {
+            return svg;
+        }
+        start += "<svg ".length();
+        return svg.substring(0, start) + "viewBox=\"0 0 " + width + " " + height + "\" " + svg.substring(start);
+    }
+}
@@ -0,0 +1,120 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.*;
+
+/**
+ * Per-task event times grouped into contiguous ranges of tasks. For each
+ * range the minimum, mean and maximum time of every event is kept along with
+ * the smallest and largest total time of a single task in the range.
+ */
+class TaskEventBins {
+
+    String[] events;
+    int[] firstTask;
+    int[] lastTask;
+    double[][] min;
+    double[][] mean;
+    double[][] max;
+    double[] minTotal;
+    double[] maxTotal;
+
+    /**
+     * Group the per-task event times of a PSiNS run
+     * @param table Per-task event times
+     * @param maxBins Upper bound on the number of ranges
+     * @return TaskEventBins The grouped event times
+     */
+    static TaskEventBins create(TaskEventTable table, int maxBins) {
+        int tasks = table.getTaskCount();
+        int eventCount = table.getEventCount();
+        int bins = Math.max(1, Math.min(maxBins, tasks));
+        TaskEventBins result = new TaskEventBins(bins, eventCount);
+        System.arraycopy(table.events, 0, result.events, 0, eventCount);
+        int[] counts = new int[bins];
+        for (int i = 0; i < tasks; ++i) {
+            int bin = (int) ((long) i * bins / tasks);
+            result.add(bin, i, counts[bin] == 0, table.times, i * eventCount);
+            ++counts[bin];
+        }
+        for (int b = 0; b < bins; ++b) {
+            for (int e = 0; e < eventCount; ++e) {
+                result.mean[b][e] = counts[b] > 0 ? result.mean[b][e] / counts[b] : 0.0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the label of a range of tasks
+     * @param bin Index of the range
+     * @return String Label of the form first-last
+     */
+    String getLabel(int bin) {
+        if (firstTask[bin] == lastTask[bin]) {
+            return String.valueOf(firstTask[bin]);
+        }
+        return String.valueOf(firstTask[bin]) + "-" + String.valueOf(lastTask[bin]);
+    }
+
+    int getBinCount() {
+        return firstTask.length;
+    }
+
+    private TaskEventBins(int bins, int eventCount) {
+        events = new String[eventCount];
+        firstTask = new int[bins];
+        lastTask = new int[bins];
+        min = new double[bins][eventCount];
+        mean = new double[bins][eventCount];
+        max = new double[bins][eventCount];
+        minTotal = new double[bins];
+        maxTotal = new double[bins];
+    }
+
+    private void add(int bin, int task, boolean first, double[] times, int row) {
+        double total = 0.0;
+        for (int e = 0; e < events.length; ++e) {
+            double time = times[row + e];
+            total += time;
+            mean[bin][e] += time;
+            if (first || time < min[bin][e]) {
+                min[bin][e] = time;
+            }
+            if (first || time > max[bin][e]) {
+                max[bin][e] = time;
+            }
+        }
+        if (first) {
+            firstTask[bin] = task;
+            minTotal[bin] = total;
+            maxTotal[bin] = total;
+        } else {
+            minTotal[bin] = Math.min(minTotal[bin], total);
+            maxTotal[bin] = Math.max(maxTotal[bin], total);
+        }
+        lastTask[bin] = task;
+    }
+}
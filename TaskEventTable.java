@@ -0,0 +1,140 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.*;
+
+/**
+ * Columnar copy of the per-task event times of a PSiNS run. Event types are
+ * mapped to small integer ids and the times are kept in a single dense array
+ * indexed by task and event id, so no Event objects are retained.
+ */
+public class TaskEventTable {
+
+    String[] events;
+    HashMap ids = new HashMap();
+    int taskCount;
+    double[] times;
+
+    /**
+     * Build the table from the per-task event lists of a PsinsData. The lists
+     * are released once they have been copied.
+     * @param data Parsed .psinsout data
+     * @return TaskEventTable The table or null if the run has no per-task data
+     */
+    public static TaskEventTable create(PsinsData data) {
+        if (data.taskEventTimes == null || data.cpuCount == 0 || data.taskEventTimes[0] == null) {
+            return null;
+        }
+        TaskEventTable table = new TaskEventTable();
+        table.taskCount = data.cpuCount;
+        ArrayList names = new ArrayList();
+        for (int i = 0; i < table.taskCount; ++i) {
+            Iterator iter = data.taskEventTimes[i].iterator();
+            while (iter.hasNext()) {
+                Event event = (Event) iter.next();
+                if (!table.ids.containsKey(event.eventType)) {
+                    table.ids.put(event.eventType, new Integer(names.size()));
+                    names.add(event.eventType);
+                }
+            }
+        }
+        table.events = (String[]) names.toArray(new String[names.size()]);
+        table.times = new double[table.taskCount * table.events.length];
+        for (int i = 0; i < table.taskCount; ++i) {
+            int row = i * table.events.length;
+            Iterator iter = data.taskEventTimes[i].iterator();
+            while (iter.hasNext()) {
+                Event event = (Event) iter.next();
+                table.times[row + ((Integer) table.ids.get(event.eventType)).intValue()] += event.value;
+            }
+            data.taskEventTimes[i] = null;
+        }
+        return table;
+    }
+
+    /**
+     * Create a table from columnar data
+     * @param events Event types, indexed by event id
+     * @param taskCount Number of tasks
+     * @param times Times indexed by task * events.length + event id
+     */
+    public TaskEventTable(String[] events, int taskCount, double[] times) {
+        this.events = events;
+        this.taskCount = taskCount;
+        this.times = times;
+        for (int e = 0; e < events.length; ++e) {
+            ids.put(events[e], new Integer(e));
+        }
+    }
+
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    public int getEventCount() {
+        return events.length;
+    }
+
+    public String getEventName(int event) {
+        return events[event];
+    }
+
+    /**
+     * Get the id of an event type
+     * @param name Event type
+     * @return int The id or -1 if no task has the event
+     */
+    public int getEventId(String name) {
+        Integer id = (Integer) ids.get(name);
+        return id != null ? id.intValue() : -1;
+    }
+
+    public double getTime(int task, int event) {
+        return times[task * events.length + event];
+    }
+
+    public double getTaskTotal(int task) {
+        double total = 0.0;
+        int row = task * events.length;
+        for (int e = 0; e < events.length; ++e) {
+            total += times[row + e];
+        }
+        return total;
+    }
+
+    /**
+     * Copy the time of one event for every task
+     * @param event Event id
+     * @param column Array of at least getTaskCount() elements
+     */
+    public void getColumn(int event, double[] column) {
+        for (int i = 0, index = event; i < taskCount; ++i, index += events.length) {
+            column[i] = times[index];
+        }
+    }
+
+    private TaskEventTable() {
+    }
+}
@@ -0,0 +1,408 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Predicted runtimes of every run, kept so that reports can show how a
+ * prediction has changed across builds. Each record is appended to a log
+ * that is never rewritten. The last WINDOW records of each series, where a
+ * series is an (application, data set, cpu count, profile), are held in
+ * memory together with running sums. Checking a prediction against its
+ * series is then constant time, and opening the store does not read the
+ * whole log. The index file holds those windows and the length of the log
+ * they cover; only the part of the log written after it is replayed. If
+ * the index is missing or does not match the log, the whole log is
+ * replayed instead.
+ */
+public class TrendStore {
+
+    static final String LOG_FILE = "trends.log";
+    static final String INDEX_FILE = "trends.idx";
+    static final int WINDOW = 32;
+    static final int MIN_HISTORY = 3;           // previous runs needed before a regression is flagged
+    static final double REGRESSION_SIGMA = 2.0;
+    static final double REGRESSION_CHANGE = 0.05;
+    File dir;
+    HashMap series = new HashMap();
+    long logLength = 0;
+    OutputStream log = null;
+    boolean dirty = false;
+
+    /**
+     * A single run of a series
+     */
+    public static class Record {
+
+        public String run;
+        public long time;
+        public double predictionTime;
+        public double communicationTime;
+        public double computationTime;
+    }
+
+    /**
+     * A prediction compared with the previous runs of its series
+     */
+    public static class Trend {
+
+        public int count;               // previous runs compared against
+        public double mean;
+        public double stddev;
+        public double change;           // relative to the mean
+        public boolean regression;
+        public Record[] history;        // oldest first, including this run
+    }
+
+    static class Series {
+
+        Record[] records = new Record[WINDOW];
+        int first = 0;
+        int size = 0;
+        double sum = 0.0;
+        double sumSquares = 0.0;
+
+        void add(Record record) {
+            if (size == WINDOW) {
+                Record oldest = records[first];
+                sum -= oldest.predictionTime;
+                sumSquares -= oldest.predictionTime * oldest.predictionTime;
+                first = (first + 1) % WINDOW;
+                --size;
+            }
+            records[(first + size) % WINDOW] = record;
+            ++size;
+            sum += record.predictionTime;
+            sumSquares += record.predictionTime * record.predictionTime;
+        }
+
+        Record get(int i) {
+            return records[(first + i) % WINDOW];
+        }
+    }
+
+    /**
+     * Open the store in a directory, creating the directory if needed
+     * @param path Path of the directory
+     * @return TrendStore The store
+     */
+    public static TrendStore open(String path) throws IOException {
+        TrendStore store = new TrendStore();
+        store.dir = new File(path);
+        if (!store.dir.isDirectory() && !store.dir.mkdirs()) {
+            throw new IOException("Cannot create trend store " + path);
+        }
+        File logFile = new File(store.dir, LOG_FILE);
+        if (!store.loadIndex(logFile.length())) {
+            store.series.clear();
+            store.logLength = 0;
+        }
+        if (store.logLength < logFile.length()) {
+            store.replay(logFile);
+            store.dirty = true;
+        }
+        store.log = new BufferedOutputStream(new FileOutputStream(logFile, true));
+        if (!endsWithNewline(logFile)) {                                       //a record cut short by a crash
+            store.log.write('\n');
+            store.log.flush();
+            ++store.logLength;
+        }
+        return store;
+    }
+
+    /**
+     * A label for a run from the time it started
+     */
+    public static String getRunLabel(long time) {
+        return new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(time));
+    }
+
+    /**
+     * The series of a prediction
+     */
+    public static String getKey(String application, String dataSet, int cpuCount, int profile) {
+        return clean(application) + "\t" + clean(dataSet) + "\t" + cpuCount + "\t" + profile;
+    }
+
+    /**
+     * Append a prediction and compare it with the previous runs of its series
+     * @param key Series of the prediction
+     * @param run Label of the run
+     * @param data Totals of the prediction
+     * @param history Maximum number of runs returned in the trend's history
+     * @return Trend The prediction compared with the runs before it
+     */
+    public synchronized Trend append(String key, String run, PsinsData data, int history) throws IOException {
+        Series s = (Series) series.get(key);
+        Record record = createRecord(run, data);
+        byte[] line = (key + "\t" + format(record) + "\n").getBytes("UTF-8");
+        log.write(line);
+        log.flush();
+        logLength += line.length;
+        if (s == null) {
+            s = new Series();
+            series.put(key, s);
+        }
+        s.add(record);
+        dirty = true;
+        return getTrend(s, s.size - 1, history);
+    }
+
+    /**
+     * The last runs of a series
+     * @param key Series
+     * @param count Maximum number of runs
+     * @return Record[] Oldest first; empty if the series has no runs
+     */
+    public synchronized Record[] getLast(String key, int count) {
+        Series s = (Series) series.get(key);
+        if (s == null) {
+            return new Record[0];
+        }
+        int n = Math.min(count, s.size);
+        Record[] records = new Record[n];
+        for (int i = 0; i < n; ++i) {
+            records[i] = s.get(s.size - n + i);
+        }
+        return records;
+    }
+
+    /**
+     * Compare a prediction with the runs held for its series without appending it
+     * @param key Series of the prediction
+     * @param run Label of the run, given to the prediction in the trend's history
+     * @param data Totals of the prediction
+     * @param history Maximum number of runs returned in the trend's history, including this one
+     * @return Trend The prediction compared with the runs held
+     */
+    public synchronized Trend getTrend(String key, String run, PsinsData data, int history) {
+        Record record = createRecord(run, data);
+        Series s = (Series) series.get(key);
+        Trend trend = s != null ? compare(s, s.size, record.predictionTime) : new Trend();
+        Record[] previous = getLast(key, Math.max(0, history - 1));
+        trend.history = new Record[previous.length + 1];
+        System.arraycopy(previous, 0, trend.history, 0, previous.length);
+        trend.history[previous.length] = record;
+        return trend;
+    }
+
+    /**
+     * Check whether a prediction is a regression from the runs held for its series
+     */
+    public synchronized boolean isRegression(String key, double predictionTime) {
+        Series s = (Series) series.get(key);
+        return s != null && compare(s, s.size, predictionTime).regression;
+    }
+
+    /**
+     * Write the index and close the log
+     */
+    public synchronized void close() {
+        save();
+        try {
+            log.close();
+        } catch (IOException e) {
+            Logger.warn("Unable to close trend log " + e);
+        }
+    }
+
+    /**
+     * Write the index if any run has been appended since it was last written
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File file = new File(dir, INDEX_FILE);
+        File temp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(temp)), "UTF-8"));
+            out.println(String.valueOf(logLength));
+            Iterator iterator = series.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                Series s = (Series) entry.getValue();
+                for (int i = 0; i < s.size; ++i) {
+                    out.println((String) entry.getKey() + "\t" + format(s.get(i)));
+                }
+            }
+            out.close();
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Logger.warn("Unable to write trend index " + file.getPath() + " " + e);
+        }
+    }
+
+    private static Record createRecord(String run, PsinsData data) {
+        Record record = new Record();
+        record.run = run;
+        record.time = System.currentTimeMillis();
+        record.predictionTime = data.totalPredictionTime;
+        record.communicationTime = data.totalCommunicationTime;
+        record.computationTime = data.totalComputationTime;
+        return record;
+    }
+
+    private Trend getTrend(Series s, int index, int history) {
+        Trend trend = compare(s, index, s.get(index).predictionTime);
+        int n = Math.min(history, index + 1);
+        trend.history = new Record[n];
+        for (int i = 0; i < n; ++i) {
+            trend.history[i] = s.get(index + 1 - n + i);
+        }
+        return trend;
+    }
+
+    // compares with the first count runs of the window; the sums cover all of it so exclude the rest
+    private Trend compare(Series s, int count, double predictionTime) {
+        double sum = s.sum;
+        double sumSquares = s.sumSquares;
+        for (int i = count; i < s.size; ++i) {
+            sum -= s.get(i).predictionTime;
+            sumSquares -= s.get(i).predictionTime * s.get(i).predictionTime;
+        }
+        Trend trend = new Trend();
+        trend.count = count;
+        if (count == 0) {
+            return trend;
+        }
+        trend.mean = sum / count;
+        trend.stddev = Math.sqrt(Math.max(0.0, sumSquares / count - trend.mean * trend.mean));
+        trend.change = trend.mean > 0.0 ? (predictionTime - trend.mean) / trend.mean : 0.0;
+        trend.regression = count >= MIN_HISTORY
+                && predictionTime > trend.mean + Math.max(REGRESSION_SIGMA * trend.stddev, REGRESSION_CHANGE * trend.mean);
+        return trend;
+    }
+
+    private boolean loadIndex(long length) {
+        File file = new File(dir, INDEX_FILE);
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                logLength = line != null ? Long.parseLong(line.trim()) : -1;
+                if (logLength < 0 || logLength > length) {
+                    Logger.warn("Trend index does not match " + LOG_FILE + "; replaying the log");
+                    return false;
+                }
+                while ((line = reader.readLine()) != null) {
+                    if (!add(line)) {
+                        return false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            Logger.warn("Ignoring unreadable trend index " + file.getPath() + " " + e);
+            return false;
+        }
+        return true;
+    }
+
+    private void replay(File logFile) throws IOException {
+        InputStream in = new FileInputStream(logFile);
+        try {
+            long skipped = 0;
+            while (skipped < logLength) {
+                long n = in.skip(logLength - skipped);
+                if (n <= 0) {
+                    throw new IOException("Cannot seek in " + logFile.getPath());
+                }
+                skipped += n;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                if (!add(line)) {
+                    Logger.warn("Ignoring malformed record " + lineNumber + " after offset " + logLength + " of " + logFile.getPath());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        logLength = logFile.length();
+    }
+
+    private boolean add(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 9) {
+            return false;
+        }
+        Record record = new Record();
+        try {
+            record.run = fields[4];
+            record.time = Long.parseLong(fields[5]);
+            record.predictionTime = Double.parseDouble(fields[6]);
+            record.communicationTime = Double.parseDouble(fields[7]);
+            record.computationTime = Double.parseDouble(fields[8]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        String key = fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + fields[3];
+        Series s = (Series) series.get(key);
+        if (s == null) {
+            s = new Series();
+            series.put(key, s);
+        }
+        s.add(record);
+        return true;
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        if (file.length() == 0) {
+            return true;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(file.length() - 1);
+            return in.read() == '\n';
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String format(Record record) {
+        return clean(record.run) + "\t" + record.time + "\t" + record.predictionTime + "\t"
+                + record.communicationTime + "\t" + record.computationTime;
+    }
+
+    private static String clean(String field) {
+        return field == null || field.length() == 0 ? "-" : field.replace('\t', ' ').replace('\n', ' ');
+    }
+}
@@ -48,6 +48,22 @@ public class Util {
     }
 
     public static boolean sendEmail(String[] to, String[] cc, String subject, String body, String[] attachments) throws Exception {
+        Session session = createSession();
+        MimeMessage message = createMessage(session, to, cc, subject, body, attachments);
+        if (message == null) {
+            return false;
+        }
+        try {
+            Transport.send(message);
+        } catch (Exception e) {
+            Logger.error("Exception while creating/sending email message " + subject + " " + e);
+            e.printStackTrace();
+            throw e;
+        }
+        return true;
+    }
+
+    public static Session createSession() throws Exception {
         String host = "";
         String username = "";
         String password = "";
@@ -65,9 +81,34 @@ public class Util {
                 throw e;
             }
         }
+        Properties properties = new Properties();
+        properties.put("mail.transport.protocol", "smtp");
+        if (useTLS.equals("1") || useTLS.equals("yes") || useTLS.equals("true")) {
+            properties.put("mail.smtp.starttls.enable", "true");
+        } else {
+            properties.put("mail.smtp.starttls.enable", "false");
+        }
+        properties.put("mail.smtp.host", host);
+        properties.put("mail.smtp.auth", "true");
+        properties.put("mail.from", sender);
+        Authenticator authenticator = new PMaCAuthenticator(username, password);
+        return Session.getDefaultInstance(properties, authenticator);
+    }
+
+    public static MimeMessage createMessage(Session session, String[] to, String[] cc, String subject, String body, String[] attachments) throws Exception {
+        return createMessage(session, to, cc, subject, body, attachments, null);
+    }
+
+    /**
+     * Create an email message. The sender is taken from the mail.from property of the session.
+     * @param archiveName If not null, the attachments are sent as a single zip archive with this name
+     * @return MimeMessage The message or null if the arguments are invalid
+     */
+    public static MimeMessage createMessage(Session session, String[] to, String[] cc, String subject, String body,
+            String[] attachments, String archiveName) throws Exception {
         if (body == null && attachments == null || to == null) {
             Logger.error("Invalid null argument passed to Util.sendEmail");
-            return false;
+            return null;
         }
         String toRecipients = "", ccRecipients = "";
         for (int i = 0; i < to.length; ++i) {
@@ -78,21 +119,9 @@ public class Util {
                 ccRecipients = (i == 0) ? cc[i] : ccRecipients + ',' + cc[i];
             }
         }
-
-        Properties properties = new Properties();
-        properties.put("mail.transport.protocol", "smtp");
-        if (useTLS.equals("1") || useTLS.equals("yes") || useTLS.equals("true")) {
-            properties.put("mail.smtp.starttls.enable", "true");
-        } else {
-            properties.put("mail.smtp.starttls.enable", "false");
-        }
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.auth", "true");
-        Authenticator authenticator = new PMaCAuthenticator(username, password);
-        Session session = Session.getDefaultInstance(properties, authenticator);
         try {
             MimeMessage message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(sender));
+            message.setFrom(new InternetAddress(session.getProperty("mail.from")));
             message.setRecipients(Message.RecipientType.TO, new InternetAddress().parse(toRecipients));
             message.setRecipients(Message.RecipientType.CC, new InternetAddress().parse(ccRecipients));
             message.setSubject(subject);
@@ -103,7 +132,14 @@ public class Util {
                     messageBodyPart.setText(body);
                     multipart.addBodyPart(messageBodyPart);
                 }
-                for (int i = 0; i < attachments.length; ++i) {
+                if (archiveName != null) {
+                    MimeBodyPart messageBodyPart = new MimeBodyPart();
+                    messageBodyPart.setDataHandler(new DataHandler(new ZipDataSource(archiveName, attachments)));
+                    messageBodyPart.setFileName(archiveName);
+                    messageBodyPart.setHeader("Content-Transfer-Encoding", "base64");  // avoids a pass over the stream to pick an encoding
+                    multipart.addBodyPart(messageBodyPart);
+                }
+                for (int i = 0; archiveName == null && i < attachments.length; ++i) {
                     String attachment = attachments[i];
                     BodyPart messageBodyPart = new MimeBodyPart();
                     DataSource source = new FileDataSource(attachment);
@@ -116,13 +152,12 @@ public class Util {
             } else {
                 message.setText(body);
             }
-            Transport.send(message);
+            return message;
         } catch (Exception e) {
             Logger.error("Exception while creating/sending email message " + subject + " " + e);
             e.printStackTrace();
             throw e;
         }
-        return true;
     }
 }
 
@@ -0,0 +1,163 @@
+package PSaPP.util;
+/*
+Copyright (c) 2010, The Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.zip.*;
+import javax.activation.*;
+
+/**
+ * DataSource which presents a set of files as a single zip archive. The
+ * archive is never staged on disk; each call to getInputStream compresses
+ * the files on a helper thread straight into the returned stream. Entries
+ * are stored without directories so that an HTML report and the images it
+ * references end up side by side. If a file cannot be read the archive is
+ * left unfinished and the stream throws the error instead of ending, so an
+ * incomplete archive is never sent as if it were whole.
+ */
+public class ZipDataSource implements DataSource {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    String name;
+    String[] files;
+
+    /**
+     * Reading end of the pipe; rethrows an error of the writer and stops the
+     * writer when closed
+     */
+    static class ArchiveStream extends FilterInputStream {
+
+        volatile IOException error = null;
+        Thread writer;
+
+        ArchiveStream(PipedInputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            check();
+            return b;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            check();
+            return count;
+        }
+
+        public void close() throws IOException {
+            IOException failed = error;                                                            //an error caused by closing early is not reported
+            writer.interrupt();
+            super.close();
+            if (failed != null) {
+                check();
+            }
+        }
+
+        private void check() throws IOException {
+            if (error != null) {
+                throw (IOException) new IOException("Unable to write archive: " + error.getMessage()).initCause(error);
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param archiveName File name of the archive as seen by the recipient
+     * @param paths Paths of the files to put in the archive
+     */
+    public ZipDataSource(String archiveName, String[] paths) {
+        name = archiveName;
+        files = paths;
+    }
+
+    public String getContentType() {
+        return "application/zip";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        final PipedOutputStream pipe = new PipedOutputStream();
+        final ArchiveStream in = new ArchiveStream(new PipedInputStream(pipe, BUFFER_SIZE));
+        in.writer = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(pipe, BUFFER_SIZE));
+                    writeEntries(zip);
+                    zip.finish();
+                    zip.flush();
+                } catch (IOException e) {
+                    in.error = e;                                                                  //set before the pipe is closed so the reader never sees a clean end
+                } finally {
+                    try {
+                        pipe.close();
+                    } catch (IOException e) {
+                        // the reader has gone
+                    }
+                }
+            }
+        }, "ZipDataSource");
+        in.writer.setDaemon(true);
+        in.writer.start();
+        return in;
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("ZipDataSource is read only");
+    }
+
+    /**
+     * Write the archive to a stream and close the stream. If a file cannot be
+     * read the archive is left unfinished and the stream is not closed.
+     * @param out Destination of the archive
+     */
+    public void write(OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        writeEntries(zip);
+        zip.close();
+    }
+
+    private void writeEntries(ZipOutputStream zip) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < files.length; ++i) {
+            File file = new File(files[i]);
+            zip.putNextEntry(new ZipEntry(file.getName()));
+            InputStream in = new FileInputStream(file);
+            try {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    zip.write(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+            zip.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.*;
+import org.jfree.chart.plot.*;
+import org.jfree.data.category.*;
+import org.jfree.data.general.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the PNG and SVG chart writers on charts shaped like those in a
+ * report: three 600x400 pie charts and a 1200x800 stacked bar chart.
+ * report renders all four and so gives the per-report chart cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChartWriterBenchmark {
+
+    static final String[] EVENTS = {"Computation", "MPI_Send", "MPI_Recv", "MPI_Isend", "MPI_Irecv",
+        "MPI_Wait", "MPI_Waitall", "MPI_Allreduce", "MPI_Bcast", "MPI_Barrier"};
+    @Param({"png", "svg"})
+    public String format;
+    @Param({"64", "256"})
+    public int tasks;
+    ChartWriter writer;
+    JFreeChart pieChart;
+    JFreeChart barChart;
+
+    @Setup
+    public void setup() {
+        writer = format.equals("svg") ? (ChartWriter) new SvgChartWriter() : (ChartWriter) new PngChartWriter();
+        DefaultPieDataset pieData = new DefaultPieDataset();
+        for (int i = 0; i < EVENTS.length; ++i) {
+            pieData.setValue(EVENTS[i], new Double(EVENTS.length - i));
+        }
+        pieChart = new JFreeChart("Total Processing and Message Passing Time", new PiePlot(pieData));
+        DefaultCategoryDataset barData = new DefaultCategoryDataset();
+        java.util.Random random = new java.util.Random(1);
+        for (int task = 0; task < tasks; ++task) {
+            for (int i = 0; i < EVENTS.length; ++i) {
+                barData.addValue(random.nextDouble() * 100.0, EVENTS[i], String.valueOf(task));
+            }
+        }
+        barChart = ChartFactory.createStackedBarChart("Per-Task Processing and Message Passing Time",
+                "Task", "Time", barData, PlotOrientation.VERTICAL, true, false, false);
+    }
+
+    @Benchmark
+    public int pie() throws IOException {
+        return write(pieChart, 600, 400);
+    }
+
+    @Benchmark
+    public int bar() throws IOException {
+        return write(barChart, 1200, 800);
+    }
+
+    @Benchmark
+    public int report() throws IOException {
+        return 3 * write(pieChart, 600, 400) + write(barChart, 1200, 800);
+    }
+
+    private int write(JFreeChart chart, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        writer.write(chart, out, width, height);
+        return out.size();
+    }
+}
@@ -0,0 +1,100 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the PSiNS and stats parsers on real results. The format of
+ * these files is owned by PSiNS, so rather than generating them the
+ * benchmark reads a results directory given with -p dir=/path/to/results;
+ * the stats files are taken from its stats/ subdirectory. Use runs of
+ * different rank and event counts to see how parsing scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"bench/data"})
+    public String dir;
+    List psinsFiles = new ArrayList();
+    List statsFiles = new ArrayList();
+
+    @Setup
+    public void setup() {
+        File[] files = new File(dir).listFiles();
+        for (int i = 0; files != null && i < files.length; ++i) {
+            if (files[i].getName().endsWith(".psinsout")) {
+                psinsFiles.add(files[i].getPath());
+            }
+        }
+        files = new File(dir, "stats").listFiles();
+        for (int i = 0; files != null && i < files.length; ++i) {
+            statsFiles.add(files[i].getPath());
+        }
+        if (psinsFiles.isEmpty()) {
+            throw new IllegalStateException("No .psinsout files in " + dir + "; run with -p dir=/path/to/results");
+        }
+    }
+
+    @Benchmark
+    public void parsePsins(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < psinsFiles.size(); ++i) {
+            String file = (String) psinsFiles.get(i);
+            PsinsData data = new PsinsData(PsinsHeader.read(file).cpuCount);
+            blackhole.consume(new PsinsParser().parse(file, data));
+            blackhole.consume(TaskEventTable.create(data));
+        }
+    }
+
+    @Benchmark
+    public void parseStats(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < statsFiles.size(); ++i) {
+            String file = (String) statsFiles.get(i);
+            if (file.endsWith(".bins")) {
+                blackhole.consume(new BinsParser().parse(file, new BinsData()));
+            } else if (file.endsWith(".func")) {
+                blackhole.consume(new FuncParser().parse(file, new FuncData()));
+            } else if (file.endsWith(".task")) {
+                blackhole.consume(new TaskParser().parse(file, new TaskData()));
+            }
+        }
+    }
+
+    @Benchmark
+    public void readHeaders(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < psinsFiles.size(); ++i) {
+            blackhole.consume(PsinsHeader.read((String) psinsFiles.get(i)));
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the stages of report generation on synthetic results of a
+ * given rank and event count. The .psinsout and stats files are stand-ins
+ * whose parsed results are served from the binary result cache, so the
+ * parsers themselves are not measured here; ParseBenchmark covers them.
+ *
+ * Run with bench/run_benchmarks.sh to get JSON results that can be
+ * compared between builds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark {
+
+    static final int PROFILE = 1;
+    static final int CACHE_SYSID = 1;
+    static final int BASE_RESOURCE = 1;
+    static final int MEMORY_PIDX = 1;
+    static final String FILENAME = "bench.psinsout";
+    static final String[] MPI_EVENTS = {"MPI_Send", "MPI_Recv", "MPI_Isend", "MPI_Irecv", "MPI_Wait", "MPI_Waitall",
+        "MPI_Allreduce", "MPI_Bcast", "MPI_Barrier", "MPI_Reduce", "MPI_Alltoall", "MPI_Allgather",
+        "MPI_Gather", "MPI_Scatter", "MPI_Sendrecv", "MPI_Waitany"};
+    @Param({"64", "1024", "8192", "32768", "131072"})
+    public int ranks;
+    @Param({"8", "32"})
+    public int events;
+    File dir;
+    Reporter reporter;
+    PsinsResult psins;
+    FuncData funcData;
+    BinsData binsData;
+    ChartWriter png = new PngChartWriter();
+
+    /**
+     * Discards charts so that only building the datasets is measured
+     */
+    static class NullChartWriter implements ChartWriter {
+
+        public String getExtension() {
+            return "png";
+        }
+
+        public void write(JFreeChart chart, OutputStream out, int width, int height) {
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        dir = File.createTempFile("report", "bench");
+        dir.delete();
+        new File(dir, "stats").mkdirs();
+        CachedDatabase db = new CachedDatabase(null);
+        db.prime(PROFILE, "bench", "bench", CACHE_SYSID, BASE_RESOURCE, MEMORY_PIDX);
+        reporter = new Reporter(dir.getPath(), db);
+        reporter.setSaveOutput(true);
+        Random random = new Random(1);
+        psins = createPsins(random);
+        funcData = createFunc(random);
+        binsData = createBins();
+        TaskData taskData = new TaskData();
+        taskData.min = 1.0;
+        taskData.max = 2.0;
+        taskData.avg = 1.5;
+        taskData.standardDeviation = 0.25;
+
+        String psinsFile = new File(dir, FILENAME).getPath();
+        PrintWriter out = new PrintWriter(new FileWriter(psinsFile));
+        out.println("Application: bench");
+        out.println("Data Set: synthetic");
+        out.println("CPU Count: " + ranks);
+        out.println("Machine Profile: " + PROFILE);
+        out.close();
+        ResultCache.savePsins(psinsFile, psins);
+        String stem = new File(dir, "stats/sysid" + CACHE_SYSID + "_bench_" + Format.BR(BASE_RESOURCE) + "_"
+                + Format.MP(MEMORY_PIDX)).getPath();
+        touch(stem + ".func");
+        ResultCache.saveFunc(stem + ".func", funcData);
+        touch(stem + ".bins");
+        ResultCache.saveBins(stem + ".bins", binsData);
+        touch(stem + ".task");
+        ResultCache.saveTask(stem + ".task", taskData);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Util.deleteDir(dir);
+    }
+
+    @Benchmark
+    public PsinsResult loadCachedPsins() throws Exception {
+        return reporter.parsePsinsFile(FILENAME, PsinsHeader.read(new File(dir, FILENAME).getPath()));
+    }
+
+    @Benchmark
+    public boolean processStats() throws Exception {
+        reporter.chartWriter = new NullChartWriter();
+        reporter.resetStatsIndex();
+        ReportContext ctx = createContext();
+        ReportWriter out = new ReportWriter(new File(dir, "stats.txt"), new File(dir, "stats.html"), null);
+        ChartRenderer renderer = new ChartRenderer(reporter.chartWriter);
+        boolean success = reporter.processStats(ctx, out, renderer);
+        out.close();
+        renderer.join(new ArrayList());
+        return success;
+    }
+
+    @Benchmark
+    public boolean writeSections() throws Exception {
+        reporter.chartWriter = new NullChartWriter();
+        return reporter.writeReport(createContext(), null);
+    }
+
+    @Benchmark
+    public List imbalance() {
+        return ImbalanceAnalyzer.analyze(psins.tasks, 0.0);
+    }
+
+    @Benchmark
+    public int etimeChart() throws Exception {
+        return render(reporter.createETimeChart(createContext()), 600, 400);
+    }
+
+    @Benchmark
+    public int etasktimeChart() throws Exception {
+        return render(reporter.createETaskTimeChart(createContext()), 1200, 800);
+    }
+
+    @Benchmark
+    public int functimeChart() throws Exception {
+        ReportContext ctx = createContext();
+        ctx.funcData = funcData;
+        return render(reporter.createFuncTimeChart(ctx), 600, 400);
+    }
+
+    @Benchmark
+    public int hitratesChart() throws Exception {
+        ReportContext ctx = createContext();
+        ctx.binsData = binsData;
+        return render(reporter.createHitRateChart(ctx), 600, 400);
+    }
+
+    @Benchmark
+    public boolean run() throws Exception {
+        reporter.chartWriter = png;
+        reporter.setForce(true);
+        return reporter.run(Collections.singletonList(FILENAME));
+    }
+
+    private ReportContext createContext() {
+        ReportContext ctx = new ReportContext(FILENAME);
+        ctx.application = "bench";
+        ctx.dataSet = "synthetic";
+        ctx.simulatedSystem = "bench";
+        ctx.cpuCount = ranks;
+        ctx.machineProfile = PROFILE;
+        ctx.psinsData = psins.data;
+        ctx.taskTable = psins.tasks;
+        return ctx;
+    }
+
+    private int render(JFreeChart chart, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        png.write(chart, out, width, height);
+        return out.size();
+    }
+
+    private PsinsResult createPsins(Random random) {
+        String[] names = new String[events + 1];
+        names[0] = "Computation";
+        for (int e = 1; e <= events; ++e) {
+            names[e] = MPI_EVENTS[(e - 1) % MPI_EVENTS.length] + (e > MPI_EVENTS.length ? "_" + e : "");
+        }
+        PsinsData data = new PsinsData(ranks);
+        double[] times = new double[ranks * names.length];
+        double[] totals = new double[names.length];
+        for (int task = 0; task < ranks; ++task) {
+            for (int e = 0; e < names.length; ++e) {
+                double time = (e == 0 ? 50.0 : 1.0) * (1.0 + random.nextDouble());
+                times[task * names.length + e] = time;
+                totals[e] += time;
+            }
+        }
+        double total = 0;
+        for (int e = 0; e < names.length; ++e) {
+            total += totals[e];
+        }
+        data.totalPredictionTime = total / ranks;
+        data.totalComputationTime = totals[0] / ranks;
+        data.totalCommunicationTime = data.totalPredictionTime - data.totalComputationTime;
+        for (int e = 0; e < names.length; ++e) {
+            data.etimes.add(new Event(names[e], totals[e] / total * 100.0));
+            if (e > 0) {
+                CommSize commSize = new CommSize();
+                commSize.count = ranks * 100;
+                commSize.totalBytes = (long) commSize.count * 4096;
+                commSize.avgBytes = 4096;
+                data.commSizes.put(names[e], commSize);
+            }
+        }
+        return new PsinsResult(data, new TaskEventTable(names, ranks, times));
+    }
+
+    private FuncData createFunc(Random random) {
+        FuncData data = new FuncData();
+        data.cachelevels = 3;
+        for (int i = 0; i < 1000; ++i) {
+            FuncTime func = new FuncTime();
+            func.name = "function_" + i;
+            func.time = 1000.0 / (i + 1);
+            for (int level = 0; level < data.cachelevels; ++level) {
+                func.hitRates.add(new Double(90.0 + random.nextDouble() * 10.0));
+            }
+            data.funcTimes.add(func);
+            if (i < Reporter.NUM_FUNC) {
+                data.funcTimeComments.add(func.name);
+            }
+        }
+        return data;
+    }
+
+    private BinsData createBins() {
+        BinsData data = new BinsData();
+        data.timeL1 = 40.0;
+        data.timeL2 = 20.0;
+        data.timeL3 = 10.0;
+        data.timeMM = 30.0;
+        data.totalTime = 100.0;
+        for (int level = 1; level <= 4; ++level) {
+            MemoryStats stats = new MemoryStats();
+            stats.cacheLevel = level;
+            stats.time = 25.0 * ranks;
+            stats.percent_total_time = 25.0;
+            data.comments.add(stats);
+        }
+        return data;
+    }
+
+    private static void touch(String path) throws IOException {
+        new FileOutputStream(path).close();
+    }
+}
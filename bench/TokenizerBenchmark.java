@@ -0,0 +1,128 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the LineNumberReader/StringTokenizer path used by the reporter
+ * with ByteTokenizer on a generated file in the layout of a .psinsout file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int lines;
+    File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("tokenizer", ".psinsout");
+        file.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        out.println("Application: icepic");
+        out.println("Data Set: standard");
+        out.println("CPU Count: 64");
+        out.println("Machine Profile: 41283");
+        Random random = new Random(1);
+        for (int i = 0; i < lines; ++i) {
+            out.println(String.valueOf(i % 64) + "\tMPI_Send\t" + String.valueOf(random.nextDouble() * 1000.0)
+                    + "\t" + String.valueOf(random.nextInt(1 << 20)));
+        }
+        out.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void stringTokenizerLastToken(Blackhole blackhole) throws IOException {
+        LineNumberReader reader = new LineNumberReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            String token = "";
+            while (tokenizer.hasMoreTokens()) {
+                token = tokenizer.nextToken();
+            }
+            if (reader.getLineNumber() > 4) {
+                blackhole.consume(Long.parseLong(token));
+            }
+        }
+        reader.close();
+    }
+
+    @Benchmark
+    public void byteTokenizerLastToken(Blackhole blackhole) throws IOException {
+        ByteTokenizer tokenizer = ByteTokenizer.map(file.getPath());
+        while (tokenizer.nextLine()) {
+            if (tokenizer.lastToken() && tokenizer.getLineNumber() > 4) {
+                blackhole.consume(tokenizer.parseLong());
+            }
+        }
+    }
+
+    @Benchmark
+    public void stringTokenizerColumn(Blackhole blackhole) throws IOException {
+        LineNumberReader reader = new LineNumberReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (reader.getLineNumber() > 4) {
+                StringTokenizer tokenizer = new StringTokenizer(line);
+                tokenizer.nextToken();
+                tokenizer.nextToken();
+                blackhole.consume(Double.parseDouble(tokenizer.nextToken()));
+            }
+        }
+        reader.close();
+    }
+
+    @Benchmark
+    public void byteTokenizerColumn(Blackhole blackhole) throws IOException {
+        ByteTokenizer tokenizer = ByteTokenizer.map(file.getPath());
+        tokenizer.seekLine(4);
+        while (tokenizer.nextLine()) {
+            if (tokenizer.token(2)) {
+                blackhole.consume(tokenizer.parseDouble());
+            }
+        }
+    }
+
+    @Benchmark
+    public PsinsHeader readHeader() throws Exception {
+        return PsinsHeader.read(file.getPath());
+    }
+}
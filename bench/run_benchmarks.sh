@@ -0,0 +1,20 @@
+#!/bin/sh
+# Run the JMH benchmarks and write the results as JSON so that they can be
+# compared between builds, e.g. with the JMH visualizer or jq.
+#
+#   BENCH_CLASSPATH  classpath holding the compiled reporter, the benchmarks,
+#                    JMH and the reporter's dependencies [REQ]
+#   BENCH_OUT        result file, default bench-<git revision>.json
+#
+# Further arguments are passed to JMH, e.g.
+#   bench/run_benchmarks.sh ReportBenchmark -p ranks=64,32768
+#   bench/run_benchmarks.sh ParseBenchmark -p dir=/path/to/results
+
+if [ "$BENCH_CLASSPATH" = "" ]; then
+  echo "BENCH_CLASSPATH must be set as an environment variable";
+  exit 1;
+fi
+if [ "$BENCH_OUT" = "" ]; then
+  BENCH_OUT=bench-`git rev-parse --short HEAD 2>/dev/null || date +%Y%m%d%H%M%S`.json
+fi
+exec java -cp "$BENCH_CLASSPATH" org.openjdk.jmh.Main -rf json -rff "$BENCH_OUT" "$@"
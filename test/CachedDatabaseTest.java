@@ -0,0 +1,155 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.dbase.*;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Looks up machine profiles through a stub Database which knows the
+ * profiles in its map and counts the lookups that reach it.
+ */
+public class CachedDatabaseTest {
+
+    StubDatabase stub;
+
+    static class StubDatabase extends Postgres {
+
+        HashMap labels = new HashMap();
+        int calls = 0;
+
+        public String getBaseResourceName(int profile) {
+            ++calls;
+            return (String) labels.get(new Integer(profile));
+        }
+
+        public String getMachineLabel(int profile) {
+            ++calls;
+            return (String) labels.get(new Integer(profile));
+        }
+
+        public int getCacheSysId(int profile) {
+            ++calls;
+            return labels.containsKey(new Integer(profile)) ? profile * 10 : -1;
+        }
+
+        public int getBaseResource(int profile) {
+            ++calls;
+            return labels.containsKey(new Integer(profile)) ? profile : -1;
+        }
+
+        public int getMemoryPIdx(int profile) {
+            ++calls;
+            return labels.containsKey(new Integer(profile)) ? 0 : -1;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        stub = new StubDatabase();
+        stub.labels.put(new Integer(1), "machine1");
+    }
+
+    @Test
+    public void testValueCached() {
+        CachedDatabase db = new CachedDatabase(stub);
+        assertEquals("machine1", db.getMachineLabel(1));
+        assertEquals("machine1", db.getMachineLabel(1));
+        assertEquals(10, db.getCacheSysId(1));
+        assertEquals(10, db.getCacheSysId(1));
+        assertEquals(2, stub.calls);
+        assertEquals(2, db.getHits());
+        assertEquals(2, db.getMisses());
+    }
+
+    @Test
+    public void testValueExpires() throws Exception {
+        CachedDatabase db = new CachedDatabase(stub, CachedDatabase.DEFAULT_CAPACITY, 50);
+        assertEquals("machine1", db.getMachineLabel(1));
+        Thread.sleep(100);
+        assertEquals("machine1", db.getMachineLabel(1));
+        assertEquals(2, stub.calls);
+    }
+
+    @Test
+    public void testFailedLookupExpires() throws Exception {
+        CachedDatabase db = new CachedDatabase(stub);
+        db.missTtl = 50;
+        assertNull(db.getMachineLabel(2));
+        assertEquals(-1, db.getCacheSysId(2));
+        assertNull(db.getMachineLabel(2));
+        assertEquals(-1, db.getCacheSysId(2));
+        assertEquals(2, stub.calls);
+        stub.labels.put(new Integer(2), "machine2");
+        Thread.sleep(100);
+        assertEquals("machine2", db.getMachineLabel(2));
+        assertEquals(20, db.getCacheSysId(2));
+        assertEquals(4, stub.calls);
+    }
+
+    @Test
+    public void testPrimedValueNeverExpires() throws Exception {
+        CachedDatabase db = new CachedDatabase(null, CachedDatabase.DEFAULT_CAPACITY, 50);
+        db.prime(3, "base3", "machine3", 30, 3, 0);
+        Thread.sleep(100);
+        assertEquals("base3", db.getBaseResourceName(3));
+        assertEquals("machine3", db.getMachineLabel(3));
+        assertEquals(30, db.getCacheSysId(3));
+        assertEquals(3, db.getBaseResource(3));
+        assertEquals(0, db.getMemoryPIdx(3));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        stub.labels.put(new Integer(2), "machine2");
+        CachedDatabase db = new CachedDatabase(stub, 2, 0);
+        db.getMachineLabel(1);
+        db.getMachineLabel(2);
+        db.getMachineLabel(1);
+        db.getBaseResourceName(1);
+        assertEquals(3, stub.calls);
+        db.getMachineLabel(1);
+        assertEquals(3, stub.calls);
+        db.getMachineLabel(2);
+        assertEquals(4, stub.calls);
+    }
+
+    @Test
+    public void testPrefetch() {
+        CachedDatabase db = new CachedDatabase(stub);
+        db.prefetch(new int[]{1});
+        int calls = stub.calls;
+        assertEquals("machine1", db.getBaseResourceName(1));
+        assertEquals("machine1", db.getMachineLabel(1));
+        assertEquals(10, db.getCacheSysId(1));
+        assertEquals(1, db.getBaseResource(1));
+        assertEquals(0, db.getMemoryPIdx(1));
+        assertEquals(5, calls);
+        assertEquals(calls, stub.calls);
+    }
+}
@@ -0,0 +1,219 @@
+package PSaPP.util;
+/*
+Copyright (c) 2010, The Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import javax.mail.Session;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Sends through the queue to an in-process SMTP server which accepts
+ * messages, rejects recipients whose address contains "invalid" and can be
+ * told to refuse a number of MAIL commands with a transient 451 reply.
+ */
+public class MailQueueTest {
+
+    SmtpServer server;
+    MailQueue queue;
+
+    static class SmtpServer implements Runnable {
+
+        ServerSocket socket;
+        Thread thread;
+        volatile int transientFailures = 0;
+        volatile int mailCommands = 0;
+        volatile int rcptCommands = 0;
+        List messages = Collections.synchronizedList(new ArrayList());
+
+        SmtpServer() throws IOException {
+            socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            thread = new Thread(this, "SmtpServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    try {
+                        handle(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    // closed by the test or by the client
+                }
+            }
+        }
+
+        void handle(Socket client) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "ISO-8859-1"));
+            Writer out = new OutputStreamWriter(client.getOutputStream(), "ISO-8859-1");
+            reply(out, "220 localhost SMTP test server");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+                if (command.equals("EHLO") || command.equals("HELO")) {
+                    reply(out, "250 localhost");
+                } else if (command.equals("MAIL")) {
+                    synchronized (this) {
+                        ++mailCommands;
+                        if (transientFailures > 0) {
+                            --transientFailures;
+                            reply(out, "451 Requested action aborted: try again later");
+                            continue;
+                        }
+                    }
+                    reply(out, "250 OK");
+                } else if (command.equals("RCPT")) {
+                    synchronized (this) {
+                        ++rcptCommands;
+                    }
+                    reply(out, line.indexOf("invalid") >= 0 ? "550 No such user" : "250 OK");
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    StringBuffer message = new StringBuffer();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        message.append(line).append('\n');
+                    }
+                    messages.add(message.toString());
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else if (command.equals("RSET") || command.equals("NOOP")) {
+                    reply(out, "250 OK");
+                } else {
+                    reply(out, "502 Command not implemented");
+                }
+            }
+        }
+
+        static void reply(Writer out, String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SmtpServer();
+        Properties properties = new Properties();
+        properties.put("mail.transport.protocol", "smtp");
+        properties.put("mail.smtp.host", "127.0.0.1");
+        properties.put("mail.smtp.port", String.valueOf(server.socket.getLocalPort()));
+        properties.put("mail.smtp.connectiontimeout", "10000");
+        properties.put("mail.smtp.timeout", "10000");
+        properties.put("mail.from", "reporter@localhost");
+        queue = new MailQueue(Session.getInstance(properties));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.close();
+        server.close();
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        Object tag = new Object();
+        queue.enqueue(new String[]{"user@localhost"}, null, "Report 1", "body", null, null, Collections.singletonList(tag));
+        assertEquals(0, queue.close());
+        assertEquals(1, queue.getSent());
+        assertTrue(queue.getSentTags().contains(tag));
+        assertEquals(1, server.messages.size());
+        assertTrue(((String) server.messages.get(0)).indexOf("Subject: Report 1") >= 0);
+    }
+
+    @Test
+    public void testTransientFailureRetried() throws Exception {
+        queue.initialBackoff = 10;
+        server.transientFailures = 2;
+        Object tag = new Object();
+        queue.enqueue(new String[]{"user@localhost"}, null, "Report 1", "body", null, null, Collections.singletonList(tag));
+        assertEquals(0, queue.close());
+        assertEquals(3, server.mailCommands);
+        assertTrue(queue.getSentTags().contains(tag));
+        assertEquals(1, server.messages.size());
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        queue.initialBackoff = 1;
+        server.transientFailures = Integer.MAX_VALUE;
+        Object tag = new Object();
+        queue.enqueue(new String[]{"user@localhost"}, null, "Report 1", "body", null, null, Collections.singletonList(tag));
+        assertEquals(1, queue.close());
+        assertEquals(MailQueue.MAX_RETRIES + 1, server.mailCommands);
+        assertFalse(queue.getSentTags().contains(tag));
+    }
+
+    @Test
+    public void testInvalidRecipientNotRetried() throws Exception {
+        // a retry would outlast the test
+        queue.initialBackoff = 60000;
+        Object tag = new Object();
+        queue.enqueue(new String[]{"invalid@localhost"}, null, "Report 1", "body", null, null, Collections.singletonList(tag));
+        queue.enqueue(new String[]{"user@localhost"}, null, "Report 2", "body", null, null, null);
+        long start = System.currentTimeMillis();
+        assertEquals(1, queue.close());
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertEquals(2, server.rcptCommands);
+        assertEquals(1, queue.getSent());
+        assertFalse(queue.getSentTags().contains(tag));
+        assertEquals(1, server.messages.size());
+    }
+
+    @Test
+    public void testMissingAttachmentNotRetried() throws Exception {
+        queue.initialBackoff = 60000;
+        File missing = new File(System.getProperty("java.io.tmpdir"), "MailQueueTest-" + System.nanoTime() + ".txt");
+        queue.enqueue(new String[]{"user@localhost"}, null, "Report 1", "body", new String[]{missing.getPath()}, null, null);
+        long start = System.currentTimeMillis();
+        assertEquals(1, queue.close());
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertEquals(0, queue.getSent());
+        assertEquals(1, server.mailCommands);
+        assertEquals(0, server.messages.size());
+    }
+
+    @Test
+    public void testMalformedAddressNotRetried() throws Exception {
+        queue.initialBackoff = 60000;
+        queue.enqueue(new String[]{"<user@localhost"}, null, "Report 1", "body", null, null, null);
+        long start = System.currentTimeMillis();
+        assertEquals(1, queue.close());
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertEquals(0, server.mailCommands);
+    }
+}
@@ -0,0 +1,270 @@
+package PSaPP.pred;
+/*
+Copyright (c) 2010, PMaC Laboratories, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions
+and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  Neither the name of the Regents of the University of California nor the names of its contributors may be
+used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR
+TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import PSaPP.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Requests reports over HTTP from a server whose reporter writes a one line
+ * page and text file for each report and counts its renders. The stats
+ * index test uses the reporter directly.
+ */
+public class ReportServerTest {
+
+    File dir;
+    StubReporter reporter;
+    ReportServer server;
+    Thread thread;
+
+    static class StubReporter extends Reporter {
+
+        HashMap renders = new HashMap();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = null;
+
+        StubReporter(String dir) {
+            super(dir, new CachedDatabase(null));
+        }
+
+        ReportContext render(String filename, OutputStream html) throws Exception {
+            ReportContext ctx = new ReportContext(filename);
+            synchronized (this) {
+                Integer count = (Integer) renders.get(ctx.name);
+                renders.put(ctx.name, new Integer(count != null ? count.intValue() + 1 : 1));
+            }
+            started.countDown();
+            if (release != null) {
+                release.await();
+            }
+            String page = "<html><body>" + ctx.name + "</body></html>\n";
+            if (html != null) {
+                html.write(page.getBytes("UTF-8"));
+                html.flush();
+            }
+            ctx.outputFiles.add(write(ctx.name + ".html", page));
+            ctx.outputFiles.add(write(ctx.name + ".txt", ctx.name + "\n"));
+            ctx.success = true;
+            return ctx;
+        }
+
+        synchronized int getRenders(String name) {
+            Integer count = (Integer) renders.get(name);
+            return count != null ? count.intValue() : 0;
+        }
+
+        private String write(String file, String content) throws IOException {
+            Writer out = new OutputStreamWriter(new FileOutputStream(outputDir + file), "UTF-8");
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            return outputDir + file;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("ReportServerTest", "");
+        dir.delete();
+        dir.mkdir();
+        new File(dir, "a.psinsout").createNewFile();
+        new File(dir, "b.psinsout").createNewFile();
+        reporter = new StubReporter(dir.getPath());
+        server = new ReportServer(reporter, dir.getPath(), 0);
+        thread = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    server.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        thread.start();
+        for (int i = 0; i < 500 && getServer() == null; ++i) {
+            Thread.sleep(10);
+        }
+        assertNotNull(getServer());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        thread.join(10000);
+        delete(dir);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        String index = get("/");
+        assertTrue(index.indexOf("<a href=\"a.html\">a</a>") >= 0);
+        assertTrue(index.indexOf("<a href=\"b.html\">b</a>") >= 0);
+    }
+
+    @Test
+    public void testRenderedOnce() throws Exception {
+        assertEquals("<html><body>a</body></html>\n", get("/a.html"));
+        assertEquals("a\n", get("/a.txt"));
+        assertEquals("<html><body>a</body></html>\n", get("/a.html"));
+        assertEquals(1, reporter.getRenders("a"));
+        assertFalse(new File(dir, "a.html").exists());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareRender() throws Exception {
+        reporter.release = new CountDownLatch(1);
+        final String[] results = new String[2];
+        Thread[] clients = new Thread[2];
+        for (int i = 0; i < clients.length; ++i) {
+            final int client = i;
+            clients[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        results[client] = get("/a.txt");
+                    } catch (IOException e) {
+                        results[client] = e.toString();
+                    }
+                }
+            });
+            clients[i].start();
+        }
+        assertTrue(reporter.started.await(10, TimeUnit.SECONDS));
+        // let the second request reach the server
+        Thread.sleep(200);
+        reporter.release.countDown();
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i].join(10000);
+            assertEquals("a\n", results[i]);
+        }
+        assertEquals(1, reporter.getRenders("a"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        server.setCacheSize(1);
+        get("/a.txt");
+        get("/b.txt");
+        get("/b.html");
+        get("/a.txt");
+        assertEquals(2, reporter.getRenders("a"));
+        assertEquals(1, reporter.getRenders("b"));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        assertEquals(404, getStatus("/c.html", "GET"));
+        assertEquals(404, getStatus("/images/a.png", "GET"));
+        assertEquals(405, getStatus("/a.html", "POST"));
+        assertEquals(0, reporter.getRenders("a"));
+    }
+
+    @Test
+    public void testStatsIndexRebuiltOnlyWhenDirectoryChanges() throws Exception {
+        File stats = new File(dir, "stats");
+        stats.mkdir();
+        new File(stats, "a_0001.bins").createNewFile();
+        long past = System.currentTimeMillis() - 60000;
+        stats.setLastModified(past);
+        StatsIndex index = reporter.getStatsIndex();
+        assertEquals(1, index.fileCount);
+        reporter.refreshStatsIndex();
+        assertSame(index, reporter.getStatsIndex());
+
+        new File(stats, "b_0001.bins").createNewFile();
+        stats.setLastModified(past + 10000);
+        reporter.refreshStatsIndex();
+        index = reporter.getStatsIndex();
+        assertEquals(2, index.fileCount);
+        reporter.refreshStatsIndex();
+        assertSame(index, reporter.getStatsIndex());
+    }
+
+    @Test
+    public void testStatsIndexRebuiltWhenChangedDuringBuild() throws Exception {
+        File stats = new File(dir, "stats");
+        stats.mkdir();
+        StatsIndex index = reporter.getStatsIndex();
+        // the mtime may hide a change made within its resolution
+        reporter.refreshStatsIndex();
+        assertNotSame(index, reporter.getStatsIndex());
+    }
+
+    private HttpServer getServer() {
+        synchronized (server) {
+            return server.server;
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open(path, "GET");
+        assertEquals(200, connection.getResponseCode());
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                content.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return content.toString("UTF-8");
+    }
+
+    private int getStatus(String path, String method) throws IOException {
+        HttpURLConnection connection = open(path, method);
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + getServer().getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setReadTimeout(10000);
+        return connection;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; ++i) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+}
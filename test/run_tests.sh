@@ -0,0 +1,20 @@
+#!/bin/sh
+# Run the reporter's unit tests with JUnit 4.
+#
+#   TEST_CLASSPATH  classpath holding the compiled reporter, the tests,
+#                   JUnit 4, hamcrest and the reporter's dependencies [REQ]
+#
+# Arguments name the test classes to run; by default all of them are run, e.g.
+#   test/run_tests.sh PSaPP.util.MailQueueTest
+
+if [ "$TEST_CLASSPATH" = "" ]; then
+  echo "TEST_CLASSPATH must be set as an environment variable";
+  exit 1;
+fi
+TESTS="$@"
+if [ "$TESTS" = "" ]; then
+  for i in `dirname $0`/*Test.java; do
+    TESTS="$TESTS `sed -n 's/^package \(.*\);/\1/p' $i`.`basename $i .java`"
+  done
+fi
+exec java -cp "$TEST_CLASSPATH" org.junit.runner.JUnitCore $TESTS